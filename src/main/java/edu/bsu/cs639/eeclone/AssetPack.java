@@ -0,0 +1,513 @@
+package edu.bsu.cs639.eeclone;
+
+import java.awt.Graphics2D;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import javax.imageio.ImageIO;
+import javax.sound.sampled.AudioFormat;
+
+import edu.bsu.cs639.eeclone.audio.Sound;
+import edu.bsu.cs639.eeclone.audio.SoundConverter;
+import edu.bsu.cs639.eeclone.audio.SoundManagerFactory;
+
+/**
+ * A single file holding the images and sounds of the resource index, already
+ * decoded, which is memory-mapped rather than read.
+ * <p>
+ * The file starts with a header listing each resource by its location, with
+ * the offset and size of its data and what is needed to interpret it. Image
+ * data is pixels in the layout of {@link ImageTarget#SOFTWARE}, 32 bit RGB or
+ * premultiplied ARGB, row by row; sound data is PCM in
+ * {@link SoundManagerFactory#PLAYBACK_FORMAT}. Each is aligned to 8 bytes.
+ * Sounds are used straight from the mapping without copying, and images take
+ * a single bulk copy when the target uses the same layout, so loading from a
+ * pack costs little more than the page faults to bring the data in.
+ * <p>
+ * The header also records the length and CRC-32 of each resource's own file.
+ * A resource that has changed since the pack was built is not taken from the
+ * pack, so that a stale pack never hides an edit.
+ * <p>
+ * The pack is built from the resource index by running this class; the Maven
+ * build does so, and puts the pack beside the jar rather than in it, since
+ * a pack inside a jar cannot be mapped. Music is streamed and is not packed.
+ *
+ * @author pvg
+ */
+public final class AssetPack {
+
+  /** The name of the pack resource */
+  public static final String RESOURCE = "assets.pack";
+
+  /** Identifies a pack: "EEPK" */
+  private static final int MAGIC = 0x4545504b;
+
+  private static final int VERSION = 2;
+
+  private static final int IMAGE = 0;
+  private static final int SOUND = 1;
+
+  /** Payload alignment, in bytes */
+  private static final int ALIGNMENT = 8;
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  /**
+   * The header entry for one resource.
+   *
+   * @author pvg
+   */
+  private static final class Entry {
+    int kind;
+    long offset;
+    int length;
+    /** The length and CRC-32 of the file the data was made from */
+    long sourceLength;
+    int sourceCrc;
+    /** Image dimensions and transparency */
+    int width, height;
+    int transparency;
+    /** Sound format */
+    AudioFormat format;
+  }
+
+  /** The whole file */
+  private final MappedByteBuffer data;
+
+  /** Maps resource locations to their entries */
+  private final Map<String,Entry> entries;
+
+  private AssetPack(MappedByteBuffer data, Map<String,Entry> entries) {
+    this.data = data;
+    this.entries = entries;
+  }
+
+  /**
+   * Find and open the game's pack: the file named by the eeclone.assetPack
+   * property, or else the pack on the classpath, if it is a plain file, or
+   * else the pack beside the game's jar or classes directory, where the
+   * build puts it. A pack inside a jar cannot be mapped, and is not used.
+   * @param cl the class loader on which to look
+   * @return the pack, or null if there is none or it cannot be opened
+   */
+  public static AssetPack find(ClassLoader cl) {
+    File file;
+    String property = System.getProperty("eeclone.assetPack");
+    if (property != null) {
+      file = new File(property);
+    } else {
+      file = toFile(cl.getResource(RESOURCE));
+      if (file == null) {
+        CodeSource code = AssetPack.class.getProtectionDomain().getCodeSource();
+        File location = code != null ? toFile(code.getLocation()) : null;
+        if (location != null) {
+          file = new File(location.getParentFile(), RESOURCE);
+          if (!file.isFile()) file = null;
+        }
+      }
+    }
+    if (file == null) return null;
+
+    try {
+      return open(file);
+    } catch (IOException e) {
+      e.printStackTrace();
+      return null;
+    }
+  }
+
+  /**
+   * Get the file a URL points to
+   * @param url the URL, or null
+   * @return the file, or null if the URL is not a file URL
+   */
+  private static File toFile(URL url) {
+    if (url == null || !"file".equals(url.getProtocol())) return null;
+    try {
+      return new File(url.toURI());
+    } catch (URISyntaxException e) {
+      e.printStackTrace();
+      return null;
+    }
+  }
+
+  /**
+   * Map a pack file and read its header
+   * @param file the pack
+   * @return the pack
+   * @throws IOException if the file cannot be mapped or is not a pack
+   */
+  public static AssetPack open(File file) throws IOException {
+    MappedByteBuffer data;
+    RandomAccessFile raf = new RandomAccessFile(file, "r");
+    try {
+      // The mapping stays valid once the file is closed
+      data = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0,
+          raf.length());
+    } finally {
+      raf.close();
+    }
+
+    try {
+      return new AssetPack(data, readHeader(data.duplicate(), data.capacity(),
+          file));
+    } catch (BufferUnderflowException e) {
+      throw new IOException("Asset pack is truncated: " + file);
+    }
+  }
+
+  /**
+   * Read and check the header of a pack
+   * @param header the pack, positioned at its start
+   * @param size the size of the pack
+   * @param file the pack file, for messages
+   * @return the entries, by resource location
+   * @throws IOException if the file is not a pack, or is corrupt
+   * @throws BufferUnderflowException if the header is cut short
+   */
+  private static Map<String,Entry> readHeader(ByteBuffer header, long size,
+      File file) throws IOException {
+    if (header.getInt() != MAGIC) throw new IOException("Not an asset pack: " + file);
+    int version = header.getShort() & 0xffff;
+    if (version != VERSION)
+      throw new IOException("Unsupported asset pack version " + version);
+    int count = header.getInt();
+    if (count < 0) throw new IOException("Asset pack is corrupt: " + file);
+    Map<String,Entry> entries = new HashMap<String,Entry>();
+    for (int i = 0; i < count; i++) {
+      String resource = readString(header);
+      Entry e = new Entry();
+      e.kind = header.get();
+      e.offset = header.getLong();
+      e.length = header.getInt();
+      e.sourceLength = header.getLong();
+      e.sourceCrc = header.getInt();
+      if (e.kind == IMAGE) {
+        e.width = header.getInt();
+        e.height = header.getInt();
+        e.transparency = header.get();
+        if (e.width <= 0 || e.height <= 0
+            || (long) e.width * e.height * 4 != e.length
+            || packedType(e.transparency) < 0)
+          throw new IOException("Asset pack is corrupt: " + file);
+      } else if (e.kind == SOUND) {
+        float rate = header.getFloat();
+        int bits = header.get();
+        int channels = header.get();
+        boolean signed = header.get() != 0;
+        boolean bigEndian = header.get() != 0;
+        e.format = new AudioFormat(rate, bits, channels, signed, bigEndian);
+      } else {
+        throw new IOException("Bad asset kind " + e.kind);
+      }
+      if (e.offset < 0 || e.length < 0 || e.offset + e.length > size)
+        throw new IOException("Asset pack is truncated: " + file);
+      entries.put(resource, e);
+    }
+    return entries;
+  }
+
+  /**
+   * Get a packed image as an image of a target. When the target uses the
+   * pack's layout the pixels are set as they are; otherwise they are drawn
+   * into the target's image.
+   * @param resource the location of the image
+   * @param source the image's own file, or null if it has none
+   * @param target the target
+   * @return a managed image, or null if it is not in this pack or has
+   *  changed since the pack was built
+   */
+  public BufferedImage image(String resource, URL source, ImageTarget target) {
+    Entry e = entries.get(resource);
+    if (e == null || e.kind != IMAGE || !isCurrent(e, source)) return null;
+    int[] pixels = new int[e.width * e.height];
+    region(e).asIntBuffer().get(pixels);
+
+    // Setting the pixels through the raster keeps the image managed
+    BufferedImage img = target.createImage(e.width, e.height, e.transparency);
+    int type = packedType(e.transparency);
+    if (img.getType() == type) {
+      img.getRaster().setDataElements(0, 0, e.width, e.height, pixels);
+    } else {
+      BufferedImage packed = new BufferedImage(e.width, e.height, type);
+      packed.getRaster().setDataElements(0, 0, e.width, e.height, pixels);
+      Graphics2D g = img.createGraphics();
+      g.drawImage(packed, 0, 0, null);
+      g.dispose();
+    }
+    return img;
+  }
+
+  /**
+   * Get a packed sound. Its samples are read directly from the mapping.
+   * @param resource the location of the sound
+   * @param source the sound's own file, or null if it has none
+   * @return the sound, or null if it is not in this pack or has changed
+   *  since the pack was built
+   */
+  public Sound sound(String resource, URL source) {
+    Entry e = entries.get(resource);
+    if (e == null || e.kind != SOUND || !isCurrent(e, source)) return null;
+    return new Sound(e.format, region(e));
+  }
+
+  /**
+   * Check that a resource's file is the one its entry was made from
+   * @param e the entry
+   * @param source the file, or null if there is none, in which case the
+   *  pack holds the only copy and is used
+   * @return true if the entry is current
+   */
+  private static boolean isCurrent(Entry e, URL source) {
+    if (source == null) return true;
+    try {
+      InputStream in = source.openStream();
+      try {
+        CRC32 crc = new CRC32();
+        long length = 0;
+        byte[] buf = new byte[8192];
+        int n;
+        while ((n = in.read(buf)) >= 0) {
+          crc.update(buf, 0, n);
+          length += n;
+        }
+        return length == e.sourceLength && (int) crc.getValue() == e.sourceCrc;
+      } finally {
+        in.close();
+      }
+    } catch (IOException ex) {
+      ex.printStackTrace();
+      return false;
+    }
+  }
+
+  /**
+   * Get the type of the packed pixels of an image: that of
+   * {@link ImageTarget#SOFTWARE}
+   * @param transparency the image's transparency
+   * @return the image type, or -1 if the transparency is not valid
+   */
+  private static int packedType(int transparency) {
+    switch (transparency) {
+    case Transparency.OPAQUE:
+      return BufferedImage.TYPE_INT_RGB;
+    case Transparency.BITMASK:
+    case Transparency.TRANSLUCENT:
+      return BufferedImage.TYPE_INT_ARGB_PRE;
+    default:
+      return -1;
+    }
+  }
+
+  /**
+   * Get a view of an entry's data
+   * @param e the entry
+   * @return a buffer from the start to the end of the data
+   */
+  private ByteBuffer region(Entry e) {
+    ByteBuffer b = data.duplicate();
+    b.position((int) e.offset);
+    b.limit((int) e.offset + e.length);
+    return b.slice();
+  }
+
+  private static String readString(ByteBuffer b) {
+    byte[] bytes = new byte[b.getShort() & 0xffff];
+    b.get(bytes);
+    return new String(bytes, UTF8);
+  }
+
+  private static void writeString(DataOutputStream out, String s)
+    throws IOException {
+    byte[] bytes = s.getBytes(UTF8);
+    out.writeShort(bytes.length);
+    out.write(bytes);
+  }
+
+  /**
+   * Build a pack from the images and sounds of a resource index.
+   * @param index the index
+   * @param root the directory against which resource locations are resolved
+   * @param out where to write the pack
+   * @throws Exception if a resource cannot be read or decoded
+   */
+  public static void build(ResourceIndex index, File root, OutputStream out)
+    throws Exception {
+    List<String> resources = new ArrayList<String>();
+    List<Entry> packed = new ArrayList<Entry>();
+    List<byte[]> payloads = new ArrayList<byte[]>();
+    for (ResourceIndex.Entry ie : index.entries()) {
+      if (resources.contains(ie.resource())) continue;
+      boolean image = ie.kind().equals(DTD.IMAGE) || ie.kind().equals(DTD.ATLAS);
+      if (!image && !ie.kind().equals(DTD.SOUND)) continue;
+      byte[] source = readAll(new File(root, ie.resource()));
+      Entry e = new Entry();
+      byte[] payload;
+      if (image) {
+        e.kind = IMAGE;
+        BufferedImage img = ImageIO.read(new ByteArrayInputStream(source));
+        if (img == null)
+          throw new IOException("Cannot decode " + ie.resource());
+        payload = packImage(img, e);
+      } else {
+        e.kind = SOUND;
+        Sound s = SoundConverter.load(new ByteArrayInputStream(source),
+            SoundManagerFactory.PLAYBACK_FORMAT);
+        e.format = s.format();
+        payload = new byte[s.length()];
+        s.samples().get(payload);
+      }
+      CRC32 crc = new CRC32();
+      crc.update(source);
+      e.sourceLength = source.length;
+      e.sourceCrc = (int) crc.getValue();
+      e.length = payload.length;
+      resources.add(ie.resource());
+      packed.add(e);
+      payloads.add(payload);
+    }
+
+    // The header has a fixed size for a given set of entries, so it is
+    // written once to size it and again with the real offsets.
+    byte[] header = header(resources, packed);
+    long offset = align(header.length);
+    for (Entry e : packed) {
+      e.offset = offset;
+      offset = align(offset + e.length);
+    }
+    header = header(resources, packed);
+
+    DataOutputStream dout = new DataOutputStream(out);
+    dout.write(header);
+    long written = header.length;
+    for (int i = 0; i < packed.size(); i++) {
+      while (written < packed.get(i).offset) {
+        dout.write(0);
+        written++;
+      }
+      dout.write(payloads.get(i));
+      written += payloads.get(i).length;
+    }
+    dout.flush();
+  }
+
+  /**
+   * Convert an image to packed pixels
+   * @param src the decoded image
+   * @param e its entry, whose dimensions and transparency are filled in
+   * @return the pixels, as big-endian ints
+   */
+  private static byte[] packImage(BufferedImage src, Entry e) {
+    e.width = src.getWidth();
+    e.height = src.getHeight();
+    e.transparency = src.getColorModel().getTransparency();
+    BufferedImage img = new BufferedImage(e.width, e.height,
+        packedType(e.transparency));
+    Graphics2D g = img.createGraphics();
+    g.drawImage(src, 0, 0, null);
+    g.dispose();
+    int[] pixels = (int[]) img.getRaster().getDataElements(0, 0, e.width,
+        e.height, null);
+    ByteBuffer b = ByteBuffer.allocate(pixels.length * 4);
+    b.asIntBuffer().put(pixels);
+    return b.array();
+  }
+
+  private static byte[] readAll(File f) throws IOException {
+    InputStream in = new FileInputStream(f);
+    try {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buf = new byte[8192];
+      int n;
+      while ((n = in.read(buf)) >= 0) out.write(buf, 0, n);
+      return out.toByteArray();
+    } finally {
+      in.close();
+    }
+  }
+
+  private static byte[] header(List<String> resources, List<Entry> packed)
+    throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(MAGIC);
+    out.writeShort(VERSION);
+    out.writeInt(packed.size());
+    for (int i = 0; i < packed.size(); i++) {
+      Entry e = packed.get(i);
+      writeString(out, resources.get(i));
+      out.writeByte(e.kind);
+      out.writeLong(e.offset);
+      out.writeInt(e.length);
+      out.writeLong(e.sourceLength);
+      out.writeInt(e.sourceCrc);
+      if (e.kind == IMAGE) {
+        out.writeInt(e.width);
+        out.writeInt(e.height);
+        out.writeByte(e.transparency);
+      } else {
+        out.writeFloat(e.format.getSampleRate());
+        out.writeByte(e.format.getSampleSizeInBits());
+        out.writeByte(e.format.getChannels());
+        out.writeBoolean(
+            e.format.getEncoding().equals(AudioFormat.Encoding.PCM_SIGNED));
+        out.writeBoolean(e.format.isBigEndian());
+      }
+    }
+    out.flush();
+    return bytes.toByteArray();
+  }
+
+  private static long align(long offset) {
+    return (offset + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+  }
+
+  /**
+   * Build a pack.
+   * @param args the xml index file, the directory holding the resources,
+   *  and the pack file to write
+   * @throws Exception
+   */
+  public static void main(String[] args) throws Exception {
+    if (args.length != 3) {
+      System.err.println("Usage: AssetPack <index.xml> <resource dir> <pack>");
+      System.exit(1);
+    }
+    ResourceIndex index;
+    InputStream in = new FileInputStream(args[0]);
+    try {
+      index = ResourceIndex.parse(in);
+    } finally {
+      in.close();
+    }
+    OutputStream out = new FileOutputStream(args[2]);
+    try {
+      build(index, new File(args[1]), out);
+    } finally {
+      out.close();
+    }
+  }
+}
@@ -0,0 +1,47 @@
+package edu.bsu.cs639.eeclone;
+
+import edu.bsu.cs639.eeclone.sprites.PlayerSprite;
+import edu.bsu.cs639.util.StartupTimer;
+
+/**
+ * Starts the game without Spring: the objects declared in
+ * applicationContext.xml are created and wired here by hand, which avoids
+ * loading the xml parser and bean machinery before the first frame.
+ * <p>
+ * Startup milestones are printed as they are reached; see
+ * {@link StartupTimer}. {@link EEClonePanel#main(String[])} remains the
+ * Spring-configured launcher, and prints the same milestones for comparison.
+ *
+ * @author pvg
+ */
+public final class Bootstrap {
+
+  /** The time between frames, in nanoseconds, as in applicationContext.xml */
+  private static final long PERIOD = 16666666L;
+
+  private Bootstrap() {}
+
+  /**
+   * Create and wire the game's objects.
+   * @return the game panel, with its game
+   */
+  static EEClonePanel wire() {
+    EEClonePanel panel = new EEClonePanel(PERIOD);
+    Game game = new Game(panel);
+    game.setPlayer(new PlayerSprite());
+    game.setScore(new ScoreClasic());
+    panel.setGame(game);
+    return panel;
+  }
+
+  /**
+   * Run the game.
+   * @param args command-line arguments (ignored)
+   */
+  public static void main(String[] args) {
+    StartupTimer.start();
+    EEClonePanel panel = wire();
+    StartupTimer.mark("context");
+    EEClonePanel.show(panel);
+  }
+}
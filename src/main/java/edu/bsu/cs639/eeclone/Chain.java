@@ -20,7 +20,8 @@ public class Chain {
    */
   public void add(Sprite.Explosion e) {
     count++;
-    Game.instance().score().add(this);
+    EventBus.instance().publish(EventBus.CHAIN_EXTENDED, count,
+        e.x() + e.width() / 2, e.y() + e.height() / 2);
   }
   
   /** 
@@ -13,7 +13,33 @@ public interface DTD {
   public static final String NAME_ATT = "name";
   public static final String RESOURCE_ATT = "resource";
   
+  /** 
+   * Optional: resources with a higher priority are preloaded first. 
+   * An integer, 0 by default. 
+   */
+  public static final String PRIORITY_ATT = "priority";
+  
+  /** 
+   * Optional: "true" to keep the resource loaded once it has been, 
+   * whatever the cache budget. 
+   */
+  public static final String PINNED_ATT = "pinned";
+  
   public static final String MUSIC = "music";
   public static final String SOUND = "sound";
+  
+  /** 
+   * An image packing several smaller ones, which are given by the region 
+   * elements within it. Takes the same attributes as an image.
+   */
+  public static final String ATLAS = "atlas";
+  
+  /** A named rectangle of the enclosing atlas */
+  public static final String REGION = "region";
+  
+  public static final String X_ATT = "x";
+  public static final String Y_ATT = "y";
+  public static final String WIDTH_ATT = "width";
+  public static final String HEIGHT_ATT = "height";
 }
 
@@ -5,12 +5,16 @@ import java.awt.Dimension;
 import java.awt.Graphics;
 import java.awt.Image;
 import java.awt.Toolkit;
+import java.awt.event.FocusAdapter;
+import java.awt.event.FocusEvent;
 
 import javax.swing.JFrame;
 import javax.swing.JPanel;
-import org.springframework.context.ApplicationContext;
 import org.springframework.context.support.ClassPathXmlApplicationContext;
 
+import edu.bsu.cs639.util.FramePacer;
+import edu.bsu.cs639.util.StartupTimer;
+
 /**
  * The swing panel that contains the EEClone game.
  * <p>
@@ -62,6 +66,21 @@ public class EEClonePanel extends JPanel implements Runnable {
      */
     private final long period;
 
+    /**
+     * Waits out the rest of each period. It parks and then spins, unless
+     * eeclone.pacing is "sleep".
+     */
+    private final FramePacer pacer = FramePacer.fromProperties();
+
+    /**
+     * Get the frame pacer of this panel, for its statistics
+     *
+     * @return frame pacer
+     */
+    FramePacer pacer() {
+        return pacer;
+    }
+
     /**
      * Create an EEClone panel.
      *
@@ -84,6 +103,20 @@ public class EEClonePanel extends JPanel implements Runnable {
         setFocusable(true);
         requestFocus();
 
+        // Pause a game in progress when focus goes elsewhere, including when
+        // the window is minimized.
+        addFocusListener(new FocusAdapter() {
+            @Override
+            public void focusLost(FocusEvent e) {
+                if (game != null) game.requestPause();
+            }
+
+            @Override
+            public void focusGained(FocusEvent e) {
+                if (game != null) game.invalidate();
+            }
+        });
+
         // Set the size of the panel
         setPreferredSize(new Dimension(Constants.BOARD_WIDTH, Constants.BOARD_HEIGHT));
 
@@ -93,7 +126,8 @@ public class EEClonePanel extends JPanel implements Runnable {
 
     /**
      * Repeat the update-render-sleep cycle to achieve desired FPS. This method
-     * handles sleep inaccuracies.
+     * handles sleep inaccuracies. While the game is idle, the cycle is
+     * suspended until there is input.
      */
     public void run() {
         // Times in nanoseconds
@@ -107,14 +141,27 @@ public class EEClonePanel extends JPanel implements Runnable {
         // cannot do this in the contructor.)
         if (backBuffer == null) {
             backBuffer = createImage(getWidth(), getHeight());
+            // Convert images for the screen this panel is actually on
+            ResourceLoader.instance().setImageTarget(
+                    ImageTarget.forDevice(getGraphicsConfiguration()));
         }
 
+        // Measure the pacer's spin threshold now rather than in the first
+        // frame's wait
+        pacer.calibrate();
+
         beforeTime = System.nanoTime();
+        boolean firstFrameMarked = false;
 
         while (running) {
             game.update();
             game.render(backBuffer);
             paintScreen();
+            InputLatency.instance().presented();
+            if (!firstFrameMarked) {
+                StartupTimer.mark("first frame");
+                firstFrameMarked = true;
+            }
 
             afterTime = System.nanoTime(); // Time after update&render
             timeDiff = afterTime - beforeTime; // Actual elapsed time
@@ -123,15 +170,9 @@ public class EEClonePanel extends JPanel implements Runnable {
 
             // If there is time left in this cycle, sleep for a bit.
             if (timeToSleep > 0) {
-                try {
-                    Thread.sleep(timeToSleep / 1000000L); // ns -> ms
-                } catch (InterruptedException ie) {
-                    // We don't expect to be interrupted, but if we do, there's nothing
-                    // special to be done, just carry on with the game.
-                }
-
-                // Determine how long we slept in (due to overhead of sleep() above)
-                overSleepTime = System.nanoTime() - afterTime - timeToSleep;
+                // Determine how long we slept in (due to overhead of the
+                // pacer), which is made up in the next cycle.
+                overSleepTime = pacer.sleepUntil(afterTime + timeToSleep);
             } // Otherwise, update/render/draw took more time than the period.
             else {
                 excess -= timeToSleep; // Store excess time value
@@ -153,6 +194,21 @@ public class EEClonePanel extends JPanel implements Runnable {
                 excess -= period;
                 game.update();
             }
+
+            // If the game has nothing to do, such as on the menu or when
+            // paused, wait for a key or an invalidation rather than drawing
+            // the same frame again. The time spent waiting is not made up.
+            if (game.isIdle()) {
+                try {
+                    game.awaitActivity();
+                } catch (InterruptedException ie) {
+                    // We don't expect to be interrupted, but if we do, there's
+                    // nothing special to be done, just carry on with the game.
+                }
+                beforeTime = System.nanoTime();
+                excess = 0;
+                overSleepTime = 0;
+            }
         }
 
         assert !running;
@@ -207,18 +263,32 @@ public class EEClonePanel extends JPanel implements Runnable {
      * Test this panel.
      *
      * @param args command-line arguments (ignored)
+     * @see Bootstrap
      */
     public static void main(String[] args) {
         //BasicConfigurator.configure();
-        ApplicationContext ac = new ClassPathXmlApplicationContext("applicationContext.xml");
+        StartupTimer.start();
+        // Typed as the class rather than ApplicationContext so that verifying
+        // this class does not load Spring when launched through Bootstrap.
+        ClassPathXmlApplicationContext ac = new ClassPathXmlApplicationContext("applicationContext.xml");
         //long period = 1000000000L / Constants.FPS; // 1000ms == 1s, convert to ns
+        //EEClonePanel panel = new EEClonePanel(period);
+        EEClonePanel panel = ac.getBean(EEClonePanel.class);
+        StartupTimer.mark("context");
+        show(panel);
+    }
+
+    /**
+     * Show a panel in a frame and start its game loop.
+     *
+     * @param panel the game panel
+     */
+    static void show(EEClonePanel panel) {
         // Set up the enclosing frame
         JFrame f = new JFrame("Test");
         f.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
 
         // Set up the game panel
-        //EEClonePanel panel = new EEClonePanel(period);
-        EEClonePanel panel = ac.getBean(EEClonePanel.class);
         panel.setPreferredSize(new java.awt.Dimension(Constants.BOARD_WIDTH,
                 Constants.BOARD_HEIGHT));
         f.getContentPane().add(panel);
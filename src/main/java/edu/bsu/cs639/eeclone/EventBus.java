@@ -0,0 +1,152 @@
+package edu.bsu.cs639.eeclone;
+
+/**
+ * Carries game events from the code that causes them to the code that
+ * reacts to them, such as the score and sound effects. This is a singleton.
+ * <p>
+ * Events are small primitive records (a type, an integer and a location)
+ * written into a preallocated ring buffer as they happen during a tick, and
+ * handed to every listener in one batch when the tick ends (see
+ * {@link #deliver()}). Publishing is therefore cheap and allocation-free, and
+ * the code that publishes does not depend on who listens.
+ *
+ * @author pvg
+ */
+public final class EventBus {
+
+  /**
+   * An explosion joined a chain, at the given location. The value is the new
+   * chain size, which is zero for the player's explosion that starts a chain.
+   */
+  public static final int CHAIN_EXTENDED = 1;
+
+  /** The player lost a life. The value is the number of lives left. */
+  public static final int LIFE_LOST = 2;
+
+  /** The player collected a powerup at the given location. */
+  public static final int POWERUP_COLLECTED = 3;
+
+  /** Points were awarded at the given location. The value is the points. */
+  public static final int POINTS_AWARDED = 4;
+
+  /**
+   * Receives game events.
+   *
+   * @author pvg
+   */
+  public interface Listener {
+    /**
+     * Handle an event. Listeners may publish further events, which are
+     * delivered in the same batch.
+     * @param type the event type, one of the constants of {@link EventBus}
+     * @param value the event's value, whose meaning depends on its type
+     * @param x the x-coordinate of the event, if it has a location
+     * @param y the y-coordinate of the event, if it has a location
+     */
+    public void onEvent(int type, int value, float x, float y);
+  }
+
+  private static final EventBus SINGLETON = new EventBus();
+
+  public static EventBus instance() {
+    return SINGLETON;
+  }
+
+  /** The capacity of the ring buffer; a power of two */
+  private static final int CAPACITY = 1024;
+
+  private static final int MASK = CAPACITY - 1;
+
+  /** The event records, one array per field */
+  private final int[] types = new int[CAPACITY];
+  private final int[] values = new int[CAPACITY];
+  private final float[] xs = new float[CAPACITY];
+  private final float[] ys = new float[CAPACITY];
+
+  /** Indices of the next record to read and to write; they only increase */
+  private long readIndex, writeIndex;
+
+  /** The listeners. Replaced, never modified, when listeners change. */
+  private volatile Listener[] listeners = new Listener[0];
+
+  private EventBus() {
+  }
+
+  /**
+   * Add a listener
+   * @param l the listener
+   */
+  public synchronized void subscribe(Listener l) {
+    assert l != null;
+    Listener[] old = listeners;
+    Listener[] updated = new Listener[old.length + 1];
+    System.arraycopy(old, 0, updated, 0, old.length);
+    updated[old.length] = l;
+    listeners = updated;
+  }
+
+  /**
+   * Remove a listener
+   * @param l the listener
+   */
+  public synchronized void unsubscribe(Listener l) {
+    Listener[] old = listeners;
+    for (int i = 0; i < old.length; i++) {
+      if (old[i] == l) {
+        Listener[] updated = new Listener[old.length - 1];
+        System.arraycopy(old, 0, updated, 0, i);
+        System.arraycopy(old, i + 1, updated, i, old.length - i - 1);
+        listeners = updated;
+        return;
+      }
+    }
+  }
+
+  /**
+   * Publish an event without a location
+   * @param type event type
+   * @param value event value
+   */
+  public void publish(int type, int value) {
+    publish(type, value, 0f, 0f);
+  }
+
+  /**
+   * Publish an event. It will be delivered at the next {@link #deliver()}.
+   * If the buffer is full, the pending events are delivered first.
+   * @param type event type
+   * @param value event value
+   * @param x x-coordinate
+   * @param y y-coordinate
+   */
+  public synchronized void publish(int type, int value, float x, float y) {
+    if (writeIndex - readIndex == CAPACITY) deliver();
+    int i = (int) (writeIndex & MASK);
+    types[i] = type;
+    values[i] = value;
+    xs[i] = x;
+    ys[i] = y;
+    writeIndex++;
+  }
+
+  /**
+   * Deliver every pending event to every listener, in the order they were
+   * published. This is called by the game at the end of each tick.
+   */
+  public synchronized void deliver() {
+    Listener[] ls = listeners;
+    while (readIndex < writeIndex) {
+      int i = (int) (readIndex++ & MASK);
+      for (Listener l : ls) {
+        l.onEvent(types[i], values[i], xs[i], ys[i]);
+      }
+    }
+  }
+
+  /**
+   * Discard all pending events
+   */
+  public synchronized void clear() {
+    readIndex = writeIndex;
+  }
+}
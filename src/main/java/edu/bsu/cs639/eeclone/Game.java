@@ -2,16 +2,20 @@ package edu.bsu.cs639.eeclone;
 
 import java.awt.Graphics2D;
 import java.awt.Image;
-import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
-import java.awt.event.KeyListener;
 import java.awt.font.TextLayout;
 import java.awt.geom.Rectangle2D;
+import java.util.BitSet;
+import java.util.concurrent.Callable;
 
+import edu.bsu.cs639.eeclone.audio.OggInputStream;
 import edu.bsu.cs639.eeclone.audio.OggPlayer;
+import edu.bsu.cs639.eeclone.audio.SoundCommandQueue;
+import edu.bsu.cs639.eeclone.audio.SoundManagerFactory;
 import edu.bsu.cs639.eeclone.sprites.PlayerSprite;
 import edu.bsu.cs639.eeclone.sprites.PlayerSprite.MovementDirection;
 import edu.bsu.cs639.eeclone.sprites.Sprite;
+import edu.bsu.cs639.eeclone.sprites.TextSprite;
 
 /**
  * The game logic. A singleton of sorts that is initialized when the constructor
@@ -70,9 +74,99 @@ public final class Game {
     }
 
     public void setScore(Score score) {
+        if (this.score != null) {
+            eventBus.unsubscribe(this.score);
+        }
         this.score = score;
+        if (score != null) {
+            eventBus.subscribe(score);
+        }
     }
 
+    /**
+     * Key events, which are handled at the start of each update.
+     */
+    private final InputQueue inputQueue = new InputQueue(new Runnable() {
+        public void run() {
+            invalidate();
+        }
+    });
+
+    /**
+     * Signalled when there is something for an idle game loop to do.
+     */
+    private final Object activity = new Object();
+
+    /**
+     * Set by {@link #invalidate()}. Guarded by {@link #activity}.
+     */
+    private boolean invalidated;
+
+    /**
+     * Set by {@link #requestPause()}, and handled on the next update.
+     */
+    private volatile boolean pauseRequested;
+
+    /**
+     * The keys held down, as of the key events handled so far. This is kept
+     * across state changes, so a key held through a pause still counts once
+     * the game resumes.
+     */
+    private final BitSet heldKeys = new BitSet();
+
+    /**
+     * The number of updates so far
+     */
+    private long updates;
+
+    /**
+     * Passes key events to the current state. Presses of a key that is
+     * already held are keyboard auto-repeat, and are not passed on.
+     */
+    private final InputQueue.Handler input = new InputQueue.Handler() {
+        public void keyPressed(int keyCode, long when) {
+            if (heldKeys.get(keyCode)) return;
+            heldKeys.set(keyCode);
+            state.input().keyPressed(keyCode, when);
+        }
+
+        public void keyReleased(int keyCode, long when) {
+            heldKeys.clear(keyCode);
+            state.input().keyReleased(keyCode, when);
+        }
+    };
+
+    /**
+     * Times inputs until they show on screen, if enabled.
+     */
+    private final InputLatency latency = InputLatency.instance();
+
+    /**
+     * Game events published during an update are delivered at its end.
+     */
+    private final EventBus eventBus = EventBus.instance();
+
+    /**
+     * Loads resources and exercises the game code while the menu is shown.
+     */
+    private final WarmUp warmUp = new WarmUp(spriteManager);
+
+    /**
+     * Plays the sounds for game events.
+     */
+    private final SoundEffects soundEffects = new SoundEffects();
+
+    /**
+     * Shows the points awarded for a powerup where it was collected.
+     */
+    private final EventBus.Listener pointsPopup = new EventBus.Listener() {
+        public void onEvent(int type, int value, float x, float y) {
+            if (type == EventBus.POINTS_AWARDED) {
+                spriteManager.add(new TextSprite("" + value, x, y));
+            }
+        }
+    };
+
     /**
      * Create a new game instance
      *
@@ -88,6 +182,10 @@ public final class Game {
         assert panel != null;
         this.panel = panel;
 
+        eventBus.subscribe(pointsPopup);
+        eventBus.subscribe(soundEffects);
+        panel.addKeyListener(inputQueue.listener());
+
         // Set the initial state
         setState(MENU_STATE);
     }
@@ -120,16 +218,78 @@ public final class Game {
         //player = new PlayerSprite();
         //score = new ScoreClasic();
         spriteManager.reset();
+        // Drop callbacks left over from the last game, or from the warm-up,
+        // before the player schedules its own
+        TickScheduler.instance().reset();
+        player.reset();
         setState(PLAYING_STATE);
     }
 
     /**
-     * Update this game's state.
+     * Update this game's state, after handling the key events since the last
+     * update.
      */
     public void update() {
+        updates++;
+        inputQueue.drain(input);
+        if (pauseRequested) {
+            pauseRequested = false;
+            // A pause is requested when focus is lost, after which releases
+            // are not delivered, so no key can be known to be held.
+            heldKeys.clear();
+            if (state == PLAYING_STATE) setState(PAUSED_STATE);
+        }
         state.update();
     }
 
+    /**
+     * Check if the game has nothing to do until something happens: its
+     * state neither changes on its own nor draws anything new. A loop may
+     * then stop updating and rendering until {@link #awaitActivity()}
+     * returns.
+     *
+     * @return true if idle
+     */
+    public boolean isIdle() {
+        return state.isIdle();
+    }
+
+    /**
+     * Wait while the game is idle and nothing has happened: no key event and
+     * no call to {@link #invalidate()}.
+     *
+     * @throws InterruptedException if this thread is interrupted
+     */
+    public void awaitActivity() throws InterruptedException {
+        synchronized (activity) {
+            while (!invalidated && inputQueue.isEmpty() && isIdle()) {
+                activity.wait();
+            }
+            invalidated = false;
+        }
+    }
+
+    /**
+     * Note that the game should be updated and drawn again, waking the loop
+     * if it is waiting in {@link #awaitActivity()}. Can be called from any
+     * thread.
+     */
+    public void invalidate() {
+        synchronized (activity) {
+            invalidated = true;
+            activity.notifyAll();
+        }
+    }
+
+    /**
+     * Ask for a game in progress to be paused, for instance because the
+     * window has lost focus. Can be called from any thread.
+     */
+    public void requestPause() {
+        pauseRequested = true;
+        invalidate();
+    }
+
     /**
      * Render this game
      *
@@ -144,6 +304,19 @@ public final class Game {
      */
     public void quit() {
         // Do other cleanup here, like saving high scores.
+        if (Boolean.getBoolean("eeclone.audio.latency")) {
+            SoundManagerFactory.instance().printLatency(System.out);
+            soundEffects.printStats(System.out);
+        }
+        if (latency.isEnabled()) {
+            latency.print(System.out);
+        }
+        if (Boolean.getBoolean("eeclone.pacing.report")) {
+            System.out.println(panel.pacer());
+        }
+        if (Boolean.getBoolean("eeclone.cache.report")) {
+            System.out.print(ResourceLoader.instance().cacheStats());
+        }
         System.exit(0);
     }
 
@@ -152,9 +325,25 @@ public final class Game {
      */
     public void gameOver() {
         OggPlayer.instance().stop();
+        prepareMusic();
         setState(END_OF_GAME_STATE);
     }
 
+    /**
+     * Open the game music in the background, ready to start with the next
+     * game, unless that has been done already.
+     */
+    private void prepareMusic() {
+        OggPlayer music = OggPlayer.instance();
+        if (!music.hasMusic()) {
+            music.prepare(new Callable<OggInputStream>() {
+                public OggInputStream call() {
+                    return ResourceLoader.instance().getOggStream("game_music");
+                }
+            }, true);
+        }
+    }
+
     /**
      * Get the score object for this game. This wil return null if there is no
      * game happening.
@@ -172,15 +361,13 @@ public final class Game {
 
         private final Image bg = ResourceLoader.instance().getImage("menu_bg");
 
-        private boolean firstRender = true;
-
         /**
-         * The key listener for this state.
+         * The key handler for this state.
          */
-        private final KeyListener keyListener = new KeyAdapter() {
+        private final InputQueue.Handler input = new InputQueue.Adapter() {
             @Override
-            public void keyPressed(KeyEvent e) {
-                if (e.getKeyCode() == KeyEvent.VK_ESCAPE) {
+            public void keyPressed(int keyCode, long when) {
+                if (keyCode == KeyEvent.VK_ESCAPE) {
                     quit();
                 } else {
                     startGame();
@@ -188,31 +375,32 @@ public final class Game {
             }
         };
 
+        public InputQueue.Handler input() {
+            return input;
+        }
+
         public void install() {
-            panel.addKeyListener(keyListener);
+            warmUp.start();
+            prepareMusic();
         }
 
         public void uninstall() {
-            panel.removeKeyListener(keyListener);
         }
 
         public void update() {
-            // Nothing to do on updates.
+            // Prepare for the first game while the menu is up
+            warmUp.update();
+        }
+
+        public boolean isIdle() {
+            // The menu does not change once the warm-up is over
+            return warmUp.isDone();
         }
 
         public void render(Image buffer) {
             assert buffer != null;
 
             Graphics2D g = (Graphics2D) buffer.getGraphics();
-
-            // There is a noticible delay the first time the font metrics
-            // for a font are computed for a text layout, so this code ensures
-            // that the delay is only when the menu is first being drawn.
-            if (firstRender) {
-                new TextLayout("x", Constants.POWERUP_TEXT_FONT, g.getFontRenderContext());
-                firstRender = false;
-            }
-
             g.drawImage(bg, 0, 0, null);
         }
     };
@@ -223,59 +411,76 @@ public final class Game {
     private final GameState PLAYING_STATE = new GameState() {
 
         /**
-         * Keep track of presses and releases for movement keys
+         * Movement keys pressed since the last update. A key pressed and
+         * released between two updates still moves the player for one.
          */
-        private boolean upActive, downActive, leftActive, rightActive;
+        private boolean upTapped, downTapped, leftTapped, rightTapped;
 
         private Image bg = ResourceLoader.instance().getImage("game_bg");
 
-        private final KeyListener keyListener = new KeyAdapter() {
-            @Override
-            public void keyPressed(KeyEvent e) {
-                switch (e.getKeyCode()) {
+        private final InputQueue.Handler input = new InputQueue.Handler() {
+            public void keyPressed(int keyCode, long when) {
+                if (isGameKey(keyCode)) latency.applied(when);
+                switch (keyCode) {
                     case KeyEvent.VK_UP:
-                        upActive = true;
+                        upTapped = true;
                         break;
                     case KeyEvent.VK_DOWN:
-                        downActive = true;
+                        downTapped = true;
                         break;
                     case KeyEvent.VK_LEFT:
-                        leftActive = true;
+                        leftTapped = true;
                         break;
                     case KeyEvent.VK_RIGHT:
-                        rightActive = true;
+                        rightTapped = true;
                         break;
                     case KeyEvent.VK_SPACE:
                         player.explode();
+                        break;
+                    case KeyEvent.VK_P:
+                        setState(PAUSED_STATE);
                 }
             }
 
-            @Override
-            public void keyReleased(KeyEvent e) {
-                switch (e.getKeyCode()) {
-                    case KeyEvent.VK_UP:
-                        upActive = false;
-                        break;
-                    case KeyEvent.VK_DOWN:
-                        downActive = false;
-                        break;
-                    case KeyEvent.VK_LEFT:
-                        leftActive = false;
-                        break;
-                    case KeyEvent.VK_RIGHT:
-                        rightActive = false;
-                        break;
+            public void keyReleased(int keyCode, long when) {
+                // Which keys are held is tracked by the game
+                if (isGameKey(keyCode) && keyCode != KeyEvent.VK_SPACE) {
+                    latency.applied(when);
                 }
             }
         };
 
+        /**
+         * Check if a key controls the player
+         *
+         * @param keyCode the key
+         * @return true for the arrow keys and space
+         */
+        private boolean isGameKey(int keyCode) {
+            switch (keyCode) {
+                case KeyEvent.VK_UP:
+                case KeyEvent.VK_DOWN:
+                case KeyEvent.VK_LEFT:
+                case KeyEvent.VK_RIGHT:
+                case KeyEvent.VK_SPACE:
+                    return true;
+                default:
+                    return false;
+            }
+        }
+
+        public InputQueue.Handler input() {
+            return input;
+        }
+
         public void install() {
-            // Reset the key actions
-            upActive = downActive = leftActive = rightActive = false;
+            // Reset the key taps; keys held through a pause still count
+            upTapped = downTapped = leftTapped = rightTapped = false;
 
-            panel.addKeyListener(keyListener);
-            OggPlayer.instance().play(
-                    ResourceLoader.instance().getOggStream("game_music"));
+            // The music was opened and primed while the menu was up; when
+            // resuming from a pause, it is already playing.
+            prepareMusic();
+            if (OggPlayer.instance().isPrepared()) OggPlayer.instance().start();
         }
 
         public void render(Image buffer) {
@@ -288,18 +493,26 @@ public final class Game {
         }
 
         public void uninstall() {
-            panel.removeKeyListener(keyListener);
+        }
+
+        public boolean isIdle() {
+            return false;
         }
 
         public void update() {
+            // Run any timers due this tick
+            TickScheduler.instance().advance();
+
             //
             // Set the player's motion vector based on keyboard commands.
+            // The key events for this update have already been handled on
+            // this thread.
             //
-            // There is potential for synchronization bugs between this code
-            // and the input processing code, but frankly, we don't care.
-            // It might mean that the player goes the wrong way for one update,
-            // and that should be barely noticable.
-            //
+            boolean upActive = heldKeys.get(KeyEvent.VK_UP) || upTapped;
+            boolean downActive = heldKeys.get(KeyEvent.VK_DOWN) || downTapped;
+            boolean leftActive = heldKeys.get(KeyEvent.VK_LEFT) || leftTapped;
+            boolean rightActive = heldKeys.get(KeyEvent.VK_RIGHT) || rightTapped;
+            upTapped = downTapped = leftTapped = rightTapped = false;
             if (upActive) {
                 if (leftActive) {
                     player.move(MovementDirection.UP_LEFT);
@@ -332,6 +545,10 @@ public final class Game {
 
             // Update all the other sprites
             spriteManager.update();
+
+            // React to everything that happened during this update
+            eventBus.deliver();
+            soundEffects.flush();
         }
 
         /**
@@ -360,15 +577,18 @@ public final class Game {
          * Listens for the press of any key, which signals a change back to the
          * playing state.
          */
-        private final KeyListener keyListener = new KeyAdapter() {
+        private final InputQueue.Handler input = new InputQueue.Adapter() {
             @Override
-            public void keyPressed(KeyEvent e) {
+            public void keyPressed(int keyCode, long when) {
                 startGame();
             }
         };
 
+        public InputQueue.Handler input() {
+            return input;
+        }
+
         public void install() {
-            panel.addKeyListener(keyListener);
         }
 
         public void render(Image buffer) {
@@ -381,13 +601,75 @@ public final class Game {
         }
 
         public void uninstall() {
-            panel.removeKeyListener(keyListener);
         }
 
         public void update() {
             // Nothing changes here.
         }
 
+        public boolean isIdle() {
+            return true;
+        }
+
+    };
+
+    /**
+     * The state when a game is paused. Nothing moves and no sound plays;
+     * a fresh press of any key continues the game.
+     */
+    private final GameState PAUSED_STATE = new GameState() {
+
+        /** The update in which the game was paused */
+        private long pausedIn;
+
+        /**
+         * Continues the game on the press of a key that was up when the
+         * game was paused. Auto-repeat of a key held since then never
+         * reaches here, and a press handled in the same update as the
+         * pause, just after it, is taken as held since then too: it counts
+         * only once the key has been released.
+         */
+        private final InputQueue.Handler input = new InputQueue.Adapter() {
+            @Override
+            public void keyPressed(int keyCode, long when) {
+                if (updates != pausedIn) setState(PLAYING_STATE);
+            }
+        };
+
+        public InputQueue.Handler input() {
+            return input;
+        }
+
+        public void install() {
+            pausedIn = updates;
+            // Through the queue, so as not to wait on, or create, the manager
+            SoundCommandQueue.instance().setPaused(true);
+            OggPlayer.instance().setPaused(true);
+        }
+
+        public void uninstall() {
+            SoundCommandQueue.instance().setPaused(false);
+            OggPlayer.instance().setPaused(false);
+        }
+
+        public void render(Image buffer) {
+            PLAYING_STATE.render(buffer);
+            Graphics2D g = (Graphics2D) buffer.getGraphics();
+            g.setPaint(new java.awt.Color(0, 0, 0, 128));
+            g.fillRect(0, 0, Constants.BOARD_WIDTH, Constants.BOARD_HEIGHT);
+            g.setPaint(java.awt.Color.WHITE);
+            g.setFont(Constants.SCORE_FONT);
+            g.drawString("Paused", 50, 200);
+            g.drawString("Press any key to continue", 50, 300);
+        }
+
+        public void update() {
+            // Nothing moves while paused.
+        }
+
+        public boolean isIdle() {
+            return true;
+        }
     };
 
 }
@@ -414,6 +696,22 @@ interface GameState {
      */
     public void update();
 
+    /**
+     * Check if this state has nothing to do until a key event: its update
+     * changes nothing and it would render the same frame again.
+     *
+     * @return true if idle
+     */
+    public boolean isIdle();
+
+    /**
+     * Get the handler for key events while this is the current state.
+     * Events are handled on the game thread, just before {@link #update()}.
+     *
+     * @return key handler
+     */
+    public InputQueue.Handler input();
+
     /**
      * Render the game, given that this is the current state.
      *
@@ -0,0 +1,255 @@
+package edu.bsu.cs639.eeclone;
+
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DirectColorModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Keeps decoded images on disk, already converted to the pixel layout of an
+ * {@link ImageTarget}, so that later runs can skip decoding them.
+ * <p>
+ * An entry is keyed by the image's resource location, the pixel layouts of
+ * the target and a hash of its encoded content, so it is simply not found
+ * once the image or the target changes; storing the new entry deletes the
+ * old ones for the same resource and target. The file holds a small header
+ * followed by the raw pixels in native byte order, which are mapped and set
+ * in bulk into the raster of a new image of the target. Only
+ * targets whose images use packed int pixels are supported; elsewhere
+ * nothing is cached.
+ * <p>
+ * The cache is off unless the eeclone.imageCache property is set: to the
+ * directory in which to keep it, or to "on" for ~/.eeclone/image-cache.
+ *
+ * @author pvg
+ */
+final class ImageCache {
+
+  /** Identifies a cache file: "EEIC" */
+  private static final int MAGIC = 0x45454943;
+
+  private static final int VERSION = 2;
+
+  /** The size of the header before the pixels */
+  private static final int HEADER_SIZE = 20;
+
+  private static final String SUFFIX = ".img";
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private static final int[] TRANSPARENCIES = {
+    Transparency.OPAQUE, Transparency.BITMASK, Transparency.TRANSLUCENT
+  };
+
+  private final File dir;
+
+  private final ImageTarget target;
+
+  /** Identifies the layouts of the target's images; part of every key */
+  private final String layouts;
+
+  private ImageCache(File dir, ImageTarget target, String layouts) {
+    this.dir = dir;
+    this.target = target;
+    this.layouts = hex(sha1().digest(layouts.getBytes(UTF8))).substring(0, 8);
+  }
+
+  /**
+   * Open the cache for a target.
+   * @param target the target into which images are converted
+   * @return the cache, or null if it is off, cannot be created or does not
+   *  support the target
+   */
+  static ImageCache create(ImageTarget target) {
+    String property = System.getProperty("eeclone.imageCache");
+    if (property == null || "off".equals(property)) return null;
+    File dir = !"on".equals(property) ? new File(property)
+      : new File(System.getProperty("user.home"), ".eeclone/image-cache");
+    if (!dir.isDirectory() && !dir.mkdirs()) return null;
+
+    StringBuilder layouts = new StringBuilder();
+    for (int t : TRANSPARENCIES) {
+      String layout = layoutOf(target.createImage(1, 1, t));
+      if (layout == null) return null;
+      layouts.append(layout).append(';');
+    }
+    layouts.append(ByteOrder.nativeOrder());
+    return new ImageCache(dir, target, layouts.toString());
+  }
+
+  /**
+   * Get a cached image
+   * @param resource the location of the image
+   * @param source the encoded image
+   * @return an image of the target, or null if there is no valid entry
+   */
+  BufferedImage get(String resource, byte[] source) {
+    File file = fileFor(resource, source);
+    if (!file.isFile()) return null;
+    try {
+      FileInputStream in = new FileInputStream(file);
+      try {
+        FileChannel ch = in.getChannel();
+        if (ch.size() < HEADER_SIZE) return null;
+        // The mapping stays valid once the file is closed
+        ByteBuffer b = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+        b.order(ByteOrder.nativeOrder());
+
+        if (b.getInt() != MAGIC || b.getInt() != VERSION) return null;
+        int transparency = b.getInt();
+        int width = b.getInt();
+        int height = b.getInt();
+        // A corrupt entry is simply not used
+        if (!isTransparency(transparency) || width <= 0 || height <= 0
+            || b.remaining() != (long) width * height * 4) return null;
+
+        BufferedImage img = target.createImage(width, height, transparency);
+        int[] pixels = new int[width * height];
+        b.asIntBuffer().get(pixels);
+        // Setting the pixels through the raster, rather than writing into
+        // its array, keeps the image managed, so that it can be accelerated
+        img.getRaster().setDataElements(0, 0, width, height, pixels);
+        return img;
+      } finally {
+        in.close();
+      }
+    } catch (IOException e) {
+      e.printStackTrace();
+      return null;
+    }
+  }
+
+  /**
+   * Store an image, replacing any older entries for the same resource and
+   * target.
+   * Failures are reported but otherwise ignored.
+   * @param resource the location of the image
+   * @param source the encoded image
+   * @param img the image of the target decoded from it
+   */
+  void put(String resource, byte[] source, BufferedImage img) {
+    if (layoutOf(img) == null) return;
+    int width = img.getWidth();
+    int height = img.getHeight();
+    int[] pixels = (int[]) img.getRaster().getDataElements(0, 0, width,
+        height, null);
+
+    ByteBuffer b = ByteBuffer.allocateDirect(HEADER_SIZE + pixels.length * 4);
+    b.order(ByteOrder.nativeOrder());
+    b.putInt(MAGIC).putInt(VERSION);
+    b.putInt(img.getColorModel().getTransparency());
+    b.putInt(width).putInt(height);
+    b.asIntBuffer().put(pixels);
+    b.rewind();
+
+    File file = fileFor(resource, source);
+    try {
+      // Write to a temporary file and move it into place, so that a
+      // partly written entry is never read.
+      File tmp = File.createTempFile("image", ".tmp", dir);
+      RandomAccessFile out = new RandomAccessFile(tmp, "rw");
+      try {
+        FileChannel ch = out.getChannel();
+        while (b.hasRemaining()) ch.write(b);
+      } finally {
+        out.close();
+      }
+      Files.move(tmp.toPath(), file.toPath(),
+          StandardCopyOption.REPLACE_EXISTING);
+
+      // Drop entries for older versions of this resource in this target
+      String prefix = prefixFor(resource);
+      File[] old = dir.listFiles();
+      if (old != null) {
+        for (File f : old) {
+          if (f.getName().startsWith(prefix) && !f.equals(file)) f.delete();
+        }
+      }
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Get the file for a resource with the given content
+   * @param resource the resource location
+   * @param source the encoded image
+   * @return the cache file
+   */
+  private File fileFor(String resource, byte[] source) {
+    return new File(dir, prefixFor(resource) + hex(sha1().digest(source))
+        + SUFFIX);
+  }
+
+  /**
+   * Get the start of the names of every cache file for a resource in this
+   * cache's target
+   * @param resource the resource location
+   * @return file name prefix
+   */
+  private String prefixFor(String resource) {
+    return hex(sha1().digest(resource.getBytes(UTF8))).substring(0, 16) + "-"
+      + layouts + "-";
+  }
+
+  /**
+   * Check that a value is one of the transparencies of {@link Transparency}
+   * @param transparency the value
+   * @return true if valid
+   */
+  private static boolean isTransparency(int transparency) {
+    for (int t : TRANSPARENCIES) {
+      if (t == transparency) return true;
+    }
+    return false;
+  }
+
+  /**
+   * Describe the pixel layout of an image
+   * @param img the image
+   * @return a description, or null if its pixels are not packed ints
+   */
+  private static String layoutOf(BufferedImage img) {
+    if (img.getRaster().getDataBuffer().getDataType() != DataBuffer.TYPE_INT
+        || !(img.getSampleModel() instanceof SinglePixelPackedSampleModel)
+        || !(img.getColorModel() instanceof DirectColorModel))
+      return null;
+    DirectColorModel cm = (DirectColorModel) img.getColorModel();
+    return Integer.toHexString(cm.getRedMask()) + ","
+      + Integer.toHexString(cm.getGreenMask()) + ","
+      + Integer.toHexString(cm.getBlueMask()) + ","
+      + Integer.toHexString(cm.getAlphaMask()) + ","
+      + cm.isAlphaPremultiplied();
+  }
+
+  private static MessageDigest sha1() {
+    try {
+      return MessageDigest.getInstance("SHA-1");
+    } catch (NoSuchAlgorithmException e) {
+      // Every Java platform is required to support SHA-1
+      throw new AssertionError(e);
+    }
+  }
+
+  private static String hex(byte[] bytes) {
+    StringBuilder sb = new StringBuilder(bytes.length * 2);
+    for (byte b : bytes) {
+      sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+      sb.append(Character.forDigit(b & 0xf, 16));
+    }
+    return sb.toString();
+  }
+}
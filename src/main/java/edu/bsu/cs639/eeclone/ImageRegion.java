@@ -0,0 +1,78 @@
+package edu.bsu.cs639.eeclone;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+/**
+ * A named rectangle of an atlas image. Drawing a region draws that part of
+ * the atlas, so every region of an atlas shares one managed image.
+ * <p>
+ * Regions are obtained from {@link ResourceLoader#getRegion(String)}.
+ *
+ * @author pvg
+ */
+public final class ImageRegion {
+
+  private final BufferedImage atlas;
+
+  private final int x, y, width, height;
+
+  ImageRegion(BufferedImage atlas, int x, int y, int width, int height) {
+    assert atlas != null;
+    assert x >= 0 && y >= 0 && width > 0 && height > 0;
+    assert x + width <= atlas.getWidth() && y + height <= atlas.getHeight();
+    this.atlas = atlas;
+    this.x = x;
+    this.y = y;
+    this.width = width;
+    this.height = height;
+  }
+
+  /**
+   * Draw this region
+   * @param g the graphics context
+   * @param dx where to draw the left edge
+   * @param dy where to draw the top edge
+   */
+  public void draw(Graphics2D g, int dx, int dy) {
+    g.drawImage(atlas, dx, dy, dx + width, dy + height, x, y, x + width,
+        y + height, null);
+  }
+
+  /**
+   * Draw this region scaled to a rectangle
+   * @param g the graphics context
+   * @param dx where to draw the left edge
+   * @param dy where to draw the top edge
+   * @param dw width to draw
+   * @param dh height to draw
+   */
+  public void draw(Graphics2D g, int dx, int dy, int dw, int dh) {
+    g.drawImage(atlas, dx, dy, dx + dw, dy + dh, x, y, x + width, y + height,
+        null);
+  }
+
+  /**
+   * Get the width of this region
+   * @return width in pixels
+   */
+  public int width() {
+    return width;
+  }
+
+  /**
+   * Get the height of this region
+   * @return height in pixels
+   */
+  public int height() {
+    return height;
+  }
+
+  /**
+   * Get the atlas this region is part of
+   * @return the atlas image
+   */
+  public BufferedImage atlas() {
+    return atlas;
+  }
+}
@@ -0,0 +1,106 @@
+package edu.bsu.cs639.eeclone;
+
+import java.awt.GraphicsConfiguration;
+import java.awt.GraphicsEnvironment;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+
+/**
+ * The kind of image into which loaded images are converted, chosen to suit
+ * the surface they are drawn on.
+ * <p>
+ * Images for a screen are made compatible with its configuration, so that
+ * they can be managed and accelerated. Where there is no screen, or when
+ * drawing is done in software anyway, images are made as 32 bit RGB, or
+ * premultiplied ARGB if they have any transparency: blending premultiplied
+ * pixels saves a multiply per channel, which is much of the cost of drawing
+ * translucent sprites in software.
+ *
+ * @author pvg
+ */
+public abstract class ImageTarget {
+
+  /** Images drawn in software: INT_RGB if opaque, otherwise INT_ARGB_PRE */
+  public static final ImageTarget SOFTWARE = new ImageTarget() {
+    @Override
+    public BufferedImage createImage(int width, int height, int transparency) {
+      return new BufferedImage(width, height,
+          transparency == Transparency.OPAQUE ? BufferedImage.TYPE_INT_RGB
+              : BufferedImage.TYPE_INT_ARGB_PRE);
+    }
+
+    @Override
+    public String toString() {
+      return "software";
+    }
+  };
+
+  /**
+   * Get the target for images drawn on a screen
+   * @param gc the screen's configuration
+   * @return the target
+   */
+  public static ImageTarget forDevice(GraphicsConfiguration gc) {
+    assert gc != null;
+    return new Device(gc);
+  }
+
+  /**
+   * Get the target to use before any surface is known: {@link #SOFTWARE}
+   * when headless or when the eeclone.imageTarget property is "software",
+   * otherwise the default screen.
+   * @return the default target
+   */
+  public static ImageTarget defaultTarget() {
+    if (GraphicsEnvironment.isHeadless()
+        || "software".equals(System.getProperty("eeclone.imageTarget")))
+      return SOFTWARE;
+    return forDevice(GraphicsEnvironment.getLocalGraphicsEnvironment()
+        .getDefaultScreenDevice().getDefaultConfiguration());
+  }
+
+  /**
+   * Create an empty image of this target's kind
+   * @param width the width of the image
+   * @param height the height of the image
+   * @param transparency the transparency the image must support, one of the
+   *  {@link Transparency} constants
+   * @return the image
+   */
+  public abstract BufferedImage createImage(int width, int height,
+      int transparency);
+
+  /**
+   * The target for a screen configuration. Targets for the same
+   * configuration are equal.
+   *
+   * @author pvg
+   */
+  private static final class Device extends ImageTarget {
+    private final GraphicsConfiguration gc;
+
+    Device(GraphicsConfiguration gc) {
+      this.gc = gc;
+    }
+
+    @Override
+    public BufferedImage createImage(int width, int height, int transparency) {
+      return gc.createCompatibleImage(width, height, transparency);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof Device && ((Device) o).gc.equals(gc);
+    }
+
+    @Override
+    public int hashCode() {
+      return gc.hashCode();
+    }
+
+    @Override
+    public String toString() {
+      return "device " + gc;
+    }
+  }
+}
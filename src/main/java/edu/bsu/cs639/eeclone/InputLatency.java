@@ -0,0 +1,94 @@
+package edu.bsu.cs639.eeclone;
+
+import java.io.PrintStream;
+
+import edu.bsu.cs639.util.Histogram;
+
+/**
+ * Measures the time from a key event to the first frame on screen that
+ * shows its effect. This is a singleton; it records nothing unless the
+ * eeclone.input.latency property is true.
+ * <p>
+ * Each input that changes what the player does is timed in two stages: from
+ * the event, as stamped by AWT, to the update that applies it
+ * ({@link #applied(long)}), and from that update to the return of the next
+ * {@link #presented()} call, made once a frame has been copied to the
+ * screen. The display's own scan-out is not included. AWT stamps events in
+ * milliseconds, so the first stage and the total are no finer than that.
+ * <p>
+ * All methods are called on the game thread.
+ *
+ * @author pvg
+ */
+final class InputLatency {
+
+  private static final InputLatency SINGLETON = new InputLatency();
+
+  static InputLatency instance() {
+    return SINGLETON;
+  }
+
+  /** The most inputs awaiting a frame; any more are not timed */
+  private static final int MAX_PENDING = 32;
+
+  private final boolean enabled = Boolean.getBoolean("eeclone.input.latency");
+
+  /** Event to update, update to presentation, and event to presentation */
+  private final Histogram toUpdate = new Histogram(500000L, 400);
+  private final Histogram toPresent = new Histogram(500000L, 400);
+  private final Histogram total = new Histogram(500000L, 400);
+
+  /** Inputs applied but not yet presented, as {@link System#nanoTime()} */
+  private final long[] eventTimes = new long[MAX_PENDING];
+  private final long[] appliedTimes = new long[MAX_PENDING];
+  private int pending;
+
+  private InputLatency() {}
+
+  /**
+   * Check if latency is being measured
+   * @return true if enabled
+   */
+  boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Record that the current update applies an input
+   * @param when the time of the key event, as in
+   *  {@link java.awt.event.KeyEvent#getWhen()}
+   */
+  void applied(long when) {
+    if (!enabled || pending == MAX_PENDING) return;
+    long now = System.nanoTime();
+    long age = (System.currentTimeMillis() - when) * 1000000L;
+    eventTimes[pending] = now - Math.max(age, 0);
+    appliedTimes[pending] = now;
+    pending++;
+  }
+
+  /**
+   * Record that a frame has just been presented, completing every input
+   * applied before it
+   */
+  void presented() {
+    if (!enabled || pending == 0) return;
+    long now = System.nanoTime();
+    for (int i = 0; i < pending; i++) {
+      toUpdate.record(appliedTimes[i] - eventTimes[i]);
+      toPresent.record(now - appliedTimes[i]);
+      total.record(now - eventTimes[i]);
+    }
+    pending = 0;
+  }
+
+  /**
+   * Print the latency distributions
+   * @param out where to print
+   */
+  void print(PrintStream out) {
+    out.println("Input latency, event to update: " + toUpdate);
+    out.println("Input latency, update to frame presented: " + toPresent);
+    out.println("Input latency, event to frame presented: " + total);
+  }
+}
@@ -0,0 +1,165 @@
+package edu.bsu.cs639.eeclone;
+
+import java.awt.event.KeyAdapter;
+import java.awt.event.KeyEvent;
+import java.awt.event.KeyListener;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands key events from the event dispatch thread to the game loop.
+ * <p>
+ * The queue's {@link #listener()} writes each press and release, with the
+ * time of the event, into a preallocated ring; the game loop takes them all
+ * at the start of each update with {@link #drain(Handler)}. Every event is
+ * thus seen by the game thread, in order, even a press and release that fall
+ * within one frame, and no game state is touched on the event thread.
+ * Posting takes no lock, other than to run the queue's wake-up callback, if
+ * it has one. If the ring is full, the event is dropped.
+ * <p>
+ * Events are plain data, so a sequence of them can be recorded and fed back
+ * through a {@link Handler} to replay a game.
+ *
+ * @author pvg
+ */
+final class InputQueue {
+
+  /**
+   * Receives key events on the game thread.
+   *
+   * @author pvg
+   */
+  interface Handler {
+    /**
+     * A key was pressed
+     * @param keyCode the key, as in {@link KeyEvent#getKeyCode()}
+     * @param when the time of the event, as in {@link KeyEvent#getWhen()}
+     */
+    void keyPressed(int keyCode, long when);
+
+    /**
+     * A key was released
+     * @param keyCode the key, as in {@link KeyEvent#getKeyCode()}
+     * @param when the time of the event, as in {@link KeyEvent#getWhen()}
+     */
+    void keyReleased(int keyCode, long when);
+  }
+
+  /**
+   * A handler that ignores every event, to be extended by those interested
+   * in only some.
+   *
+   * @author pvg
+   */
+  static class Adapter implements Handler {
+    public void keyPressed(int keyCode, long when) {}
+    public void keyReleased(int keyCode, long when) {}
+  }
+
+  /** The number of events the ring holds; a power of two */
+  private static final int CAPACITY = 256;
+
+  private static final int MASK = CAPACITY - 1;
+
+  /** The events, one array per field */
+  private final int[] keyCodes = new int[CAPACITY];
+  private final boolean[] pressed = new boolean[CAPACITY];
+  private final long[] whens = new long[CAPACITY];
+
+  /** The index of the next event to read; written by the game thread */
+  private final AtomicLong head = new AtomicLong();
+
+  /** The index of the next event to write; written by the event thread */
+  private final AtomicLong tail = new AtomicLong();
+
+  private final AtomicLong droppedCount = new AtomicLong();
+
+  /** Run after each event is posted, or null */
+  private final Runnable wakeUp;
+
+  private final KeyListener listener = new KeyAdapter() {
+    @Override
+    public void keyPressed(KeyEvent e) {
+      post(e.getKeyCode(), true, e.getWhen());
+    }
+
+    @Override
+    public void keyReleased(KeyEvent e) {
+      post(e.getKeyCode(), false, e.getWhen());
+    }
+  };
+
+  /**
+   * Create a queue
+   * @param wakeUp run on the posting thread after each event is posted, for
+   *  instance to wake a game loop waiting for input; or null
+   */
+  InputQueue(Runnable wakeUp) {
+    this.wakeUp = wakeUp;
+  }
+
+  /**
+   * Get the listener that feeds this queue. It should be added to one
+   * component only, since events must be posted from one thread.
+   * @return key listener
+   */
+  KeyListener listener() {
+    return listener;
+  }
+
+  /**
+   * Add an event to the queue
+   * @param keyCode the key
+   * @param isPress true for a press, false for a release
+   * @param when the time of the event
+   * @return false if the event was dropped because the queue is full
+   */
+  boolean post(int keyCode, boolean isPress, long when) {
+    long t = tail.get();
+    if (t - head.get() == CAPACITY) {
+      droppedCount.incrementAndGet();
+      return false;
+    }
+    int i = (int) (t & MASK);
+    keyCodes[i] = keyCode;
+    pressed[i] = isPress;
+    whens[i] = when;
+    tail.set(t + 1);
+    if (wakeUp != null) wakeUp.run();
+    return true;
+  }
+
+  /**
+   * Check if there are events waiting to be drained
+   * @return true if the queue is empty
+   */
+  boolean isEmpty() {
+    return head.get() == tail.get();
+  }
+
+  /**
+   * Pass every queued event to a handler, oldest first. Events posted while
+   * this runs are left for the next drain. Called only on the game thread.
+   * @param handler receives the events
+   */
+  void drain(Handler handler) {
+    long h = head.get();
+    long end = tail.get();
+    while (h < end) {
+      int i = (int) (h & MASK);
+      int keyCode = keyCodes[i];
+      boolean isPress = pressed[i];
+      long when = whens[i];
+      head.lazySet(++h);
+      if (isPress) handler.keyPressed(keyCode, when);
+      else handler.keyReleased(keyCode, when);
+    }
+  }
+
+  /**
+   * Get the number of events dropped because the queue was full
+   * @return dropped count
+   */
+  long droppedCount() {
+    return droppedCount.get();
+  }
+}
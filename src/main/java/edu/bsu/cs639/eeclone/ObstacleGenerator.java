@@ -34,10 +34,17 @@ public class ObstacleGenerator {
 
     // TODO: make this vary as the game progresses.
     if (Math.random() < probabilityPerTick)
-      generateFlyingFlock((int)(Math.random() * 3)*2+3);
+      generateFlock();
     
   }
   
+  /**
+   * Generate a flock of random size now.
+   */
+  void generateFlock() {
+    generateFlyingFlock((int)(Math.random() * 3)*2+3);
+  }
+  
   private static final float WIGGLE = (float)(0.25 * Math.PI);
   private static final float HALF_WIGGLE = WIGGLE / 2f;
   
@@ -0,0 +1,228 @@
+package edu.bsu.cs639.eeclone;
+
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps the resources of one kind within a memory budget.
+ * <p>
+ * Loaded resources are recorded with their size, in the order they were last
+ * used. When the resident total exceeds the budget, the least recently used
+ * unpinned resources are evicted: the {@link Evictor} is told to drop them,
+ * and only a soft reference is kept, so that one that has not yet been
+ * collected can be recovered instead of loaded again. Pinned resources count
+ * towards the total but are never evicted.
+ * <p>
+ * Evictions, recoveries and reloads are counted; a reload is a load of a
+ * resource that had been loaded before and was since collected.
+ * <p>
+ * All methods are thread-safe.
+ *
+ * @author pvg
+ */
+final class ResourceCache<T> {
+
+  /**
+   * Measures resources.
+   *
+   * @author pvg
+   */
+  interface Sizer<T> {
+    /**
+     * Get the memory used by a resource
+     * @param value the resource
+     * @return its size, in bytes
+     */
+    long sizeOf(T value);
+  }
+
+  /**
+   * Drops evicted resources from wherever they are held.
+   *
+   * @author pvg
+   */
+  interface Evictor {
+    /**
+     * Called when a resource is evicted, with the cache locked
+     * @param key the resource's key
+     */
+    void evicted(String key);
+  }
+
+  /**
+   * A resident resource.
+   *
+   * @author pvg
+   */
+  private static final class Resident<T> {
+    final T value;
+    final long bytes;
+    final boolean pinned;
+
+    Resident(T value, long bytes, boolean pinned) {
+      this.value = value;
+      this.bytes = bytes;
+      this.pinned = pinned;
+    }
+  }
+
+  private final String kind;
+
+  private final long budget;
+
+  private final Sizer<T> sizer;
+
+  private final Evictor evictor;
+
+  /** Resident resources, least recently used first */
+  private final LinkedHashMap<String,Resident<T>> resident =
+    new LinkedHashMap<String,Resident<T>>(16, 0.75f, true);
+
+  /** Evicted resources, which may not yet have been collected */
+  private final Map<String,SoftReference<T>> evicted =
+    new HashMap<String,SoftReference<T>>();
+
+  /** The keys of every resource ever added */
+  private final Set<String> seen = new HashSet<String>();
+
+  private long residentBytes, pinnedBytes;
+
+  private long evictions, recoveries, reloads;
+
+  /**
+   * @param kind what is cached, for reports
+   * @param budget the most bytes of unpinned resources to keep resident
+   * @param sizer measures resources
+   * @param evictor drops evicted resources
+   */
+  ResourceCache(String kind, long budget, Sizer<T> sizer, Evictor evictor) {
+    assert kind != null;
+    assert budget >= 0;
+    assert sizer != null;
+    assert evictor != null;
+    this.kind = kind;
+    this.budget = budget;
+    this.sizer = sizer;
+    this.evictor = evictor;
+  }
+
+  /**
+   * Record a newly loaded resource, evicting others if that exceeds the
+   * budget.
+   * @param key the resource's key
+   * @param value the resource
+   * @param pinned true if it must never be evicted
+   */
+  synchronized void add(String key, T value, boolean pinned) {
+    if (!seen.add(key)) reloads++;
+    evicted.remove(key);
+    admit(key, value, pinned);
+  }
+
+  /**
+   * Take back an evicted resource that has not yet been collected
+   * @param key the resource's key
+   * @param pinned true if it must never be evicted
+   * @return the resource, or null if it was never evicted or is gone
+   */
+  synchronized T recover(String key, boolean pinned) {
+    SoftReference<T> ref = evicted.remove(key);
+    T value = ref != null ? ref.get() : null;
+    if (value != null) {
+      recoveries++;
+      admit(key, value, pinned);
+    }
+    return value;
+  }
+
+  /**
+   * Mark a resource as just used
+   * @param key the resource's key
+   */
+  synchronized void touch(String key) {
+    resident.get(key);
+  }
+
+  private void admit(String key, T value, boolean pinned) {
+    Resident<T> r = new Resident<T>(value, sizer.sizeOf(value), pinned);
+    Resident<T> old = resident.put(key, r);
+    if (old != null) release(old);
+    residentBytes += r.bytes;
+    if (pinned) pinnedBytes += r.bytes;
+    evict();
+  }
+
+  /**
+   * Evict least recently used resources until the unpinned ones fit in the
+   * budget.
+   */
+  private void evict() {
+    List<String> dropped = new ArrayList<String>();
+    Iterator<Map.Entry<String,Resident<T>>> it = resident.entrySet().iterator();
+    while (residentBytes - pinnedBytes > budget && it.hasNext()) {
+      Map.Entry<String,Resident<T>> e = it.next();
+      Resident<T> r = e.getValue();
+      if (r.pinned) continue;
+      it.remove();
+      release(r);
+      evicted.put(e.getKey(), new SoftReference<T>(r.value));
+      evictions++;
+      dropped.add(e.getKey());
+    }
+    for (String key : dropped) evictor.evicted(key);
+  }
+
+  private void release(Resident<T> r) {
+    residentBytes -= r.bytes;
+    if (r.pinned) pinnedBytes -= r.bytes;
+  }
+
+  /**
+   * Forget every resource, without evicting it. The statistics are kept.
+   */
+  synchronized void clear() {
+    resident.clear();
+    evicted.clear();
+    residentBytes = 0;
+    pinnedBytes = 0;
+  }
+
+  /**
+   * Get the memory used by resident resources
+   * @return bytes, pinned included
+   */
+  synchronized long residentBytes() {
+    return residentBytes;
+  }
+
+  /**
+   * Get the number of resources evicted
+   * @return eviction count
+   */
+  synchronized long evictions() {
+    return evictions;
+  }
+
+  /**
+   * Get the number of evicted resources loaded again
+   * @return reload count
+   */
+  synchronized long reloads() {
+    return reloads;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return String.format("%s: %d resident, %.1f of %.1f MB (%.1f MB pinned), "
+        + "%d evictions, %d recovered, %d reloads", kind, resident.size(),
+        residentBytes / 1048576.0, budget / 1048576.0, pinnedBytes / 1048576.0,
+        evictions, recoveries, reloads);
+  }
+}
@@ -0,0 +1,402 @@
+package edu.bsu.cs639.eeclone;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * The entries of a resource index: the name, kind and location of every
+ * resource the game uses.
+ * <p>
+ * The index is written as xml (see {@link DTD}), and compiled at build time
+ * into a compact binary form, which is what the game normally reads: it is
+ * read with a single stream and needs no xml parser. The xml is still read,
+ * with a streaming parser, when there is no compiled index or when a
+ * different index file is given with the eeclone.resourceIndex property.
+ * <p>
+ * To compile an index, run this class with the xml file and the binary file
+ * to write as arguments. The Maven build does so for resource_index.xml.
+ *
+ * @author pvg
+ */
+public final class ResourceIndex {
+
+  /** The name of the index resource, in xml */
+  public static final String XML_RESOURCE = "resource_index.xml";
+
+  /** The name of the compiled index resource */
+  public static final String COMPILED_RESOURCE = "resource_index.bin";
+
+  /** Identifies a compiled index: "EERI" */
+  private static final int MAGIC = 0x45455249;
+
+  /** The version of the compiled format */
+  private static final int VERSION = 3;
+
+  /** Kinds of resources, as element names; the index is the compiled code */
+  private static final String[] KINDS = 
+    { DTD.IMAGE, DTD.MUSIC, DTD.SOUND, DTD.ATLAS };
+
+  /**
+   * A resource in the index.
+   *
+   * @author pvg
+   */
+  public static final class Entry {
+    private final String kind, name, resource;
+    private final int priority;
+    private final boolean pinned;
+
+    Entry(String kind, String name, String resource, int priority,
+        boolean pinned) {
+      assert kind != null;
+      assert name != null;
+      assert resource != null;
+      this.kind = kind;
+      this.name = name;
+      this.resource = resource;
+      this.priority = priority;
+      this.pinned = pinned;
+    }
+
+    /**
+     * Get the kind of resource
+     * @return {@link DTD#IMAGE}, {@link DTD#MUSIC}, {@link DTD#SOUND} or
+     *  {@link DTD#ATLAS}
+     */
+    public String kind() { return kind; }
+
+    /**
+     * Get the key by which the game refers to the resource
+     * @return name
+     */
+    public String name() { return name; }
+
+    /**
+     * Get the location of the resource on the classpath
+     * @return resource location
+     */
+    public String resource() { return resource; }
+
+    /**
+     * Get the preload priority; higher is loaded first
+     * @return priority
+     */
+    public int priority() { return priority; }
+
+    /**
+     * Check if the resource is kept loaded regardless of the cache budget
+     * @return true if pinned
+     */
+    public boolean pinned() { return pinned; }
+  }
+
+  /**
+   * A named rectangle of an atlas.
+   *
+   * @author pvg
+   */
+  public static final class Region {
+    private final String name, atlas;
+    private final int x, y, width, height;
+
+    Region(String name, String atlas, int x, int y, int width, int height) {
+      assert name != null;
+      assert atlas != null;
+      this.name = name;
+      this.atlas = atlas;
+      this.x = x;
+      this.y = y;
+      this.width = width;
+      this.height = height;
+    }
+
+    /**
+     * Get the key by which the game refers to the region
+     * @return name
+     */
+    public String name() { return name; }
+
+    /**
+     * Get the name of the atlas entry holding the region
+     * @return atlas name
+     */
+    public String atlas() { return atlas; }
+
+    public int x() { return x; }
+    public int y() { return y; }
+    public int width() { return width; }
+    public int height() { return height; }
+  }
+
+  private final List<Entry> entries;
+
+  private final List<Region> regions;
+
+  private ResourceIndex(List<Entry> entries, List<Region> regions) {
+    this.entries = Collections.unmodifiableList(entries);
+    this.regions = Collections.unmodifiableList(regions);
+  }
+
+  /**
+   * Get the entries, in the order they appear in the index
+   * @return entries
+   */
+  public List<Entry> entries() {
+    return entries;
+  }
+
+  /**
+   * Get the regions of every atlas, in the order they appear in the index
+   * @return regions
+   */
+  public List<Region> regions() {
+    return regions;
+  }
+
+  /**
+   * Load the game's resource index: the file named by the
+   * eeclone.resourceIndex property if it is set, otherwise the compiled
+   * index, otherwise the xml index.
+   * @param cl the class loader from which to load the index
+   * @return the index
+   * @throws IOException if the index cannot be read
+   */
+  public static ResourceIndex load(ClassLoader cl) throws IOException {
+    String file = System.getProperty("eeclone.resourceIndex");
+    if (file != null) {
+      InputStream in = new FileInputStream(file);
+      try {
+        return parse(in);
+      } finally {
+        in.close();
+      }
+    }
+
+    InputStream in = cl.getResourceAsStream(COMPILED_RESOURCE);
+    if (in != null) {
+      try {
+        return read(in);
+      } finally {
+        in.close();
+      }
+    }
+
+    in = cl.getResourceAsStream(XML_RESOURCE);
+    if (in == null)
+      throw new IOException("Cannot find resource index file: " + XML_RESOURCE);
+    try {
+      return parse(in);
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Parse an xml index. Only the resource elements directly within the
+   * resource list, and the regions directly within an atlas, are read;
+   * anything else is skipped.
+   * @param in the xml
+   * @return the index
+   * @throws IOException if the xml cannot be read or parsed
+   */
+  public static ResourceIndex parse(InputStream in) throws IOException {
+    List<Entry> entries = new ArrayList<Entry>();
+    List<Region> regions = new ArrayList<Region>();
+    try {
+      XMLStreamReader r = XMLInputFactory.newInstance().createXMLStreamReader(in);
+      int depth = 0;
+      boolean inList = false;
+      // The name of the atlas being read, if any
+      String atlas = null;
+      while (r.hasNext()) {
+        switch (r.next()) {
+          case XMLStreamConstants.START_ELEMENT:
+            depth++;
+            String element = r.getLocalName();
+            if (depth == 1) {
+              inList = element.equalsIgnoreCase(DTD.RESOURCE_LIST);
+            } else if (depth == 3 && atlas != null
+                && element.equalsIgnoreCase(DTD.REGION)) {
+              String name = r.getAttributeValue(null, DTD.NAME_ATT);
+              if (name == null)
+                throw new IOException("Resource index " + element
+                    + " needs " + DTD.NAME_ATT);
+              regions.add(new Region(name, atlas,
+                  intAttribute(r, DTD.X_ATT, name),
+                  intAttribute(r, DTD.Y_ATT, name),
+                  intAttribute(r, DTD.WIDTH_ATT, name),
+                  intAttribute(r, DTD.HEIGHT_ATT, name)));
+            } else if (depth == 2 && inList) {
+              String kind = kindOf(element);
+              atlas = null;
+              if (kind != null) {
+                String name = r.getAttributeValue(null, DTD.NAME_ATT);
+                String resource = r.getAttributeValue(null, DTD.RESOURCE_ATT);
+                if (name == null || resource == null)
+                  throw new IOException("Resource index " + element 
+                      + " needs " + DTD.NAME_ATT + " and " + DTD.RESOURCE_ATT);
+                String priority = r.getAttributeValue(null, DTD.PRIORITY_ATT);
+                String pinned = r.getAttributeValue(null, DTD.PINNED_ATT);
+                int p = 0;
+                if (priority != null) {
+                  try {
+                    p = Integer.parseInt(priority.trim());
+                  } catch (NumberFormatException e) {
+                    throw new IOException("Bad " + DTD.PRIORITY_ATT + " for "
+                        + name + ": " + priority);
+                  }
+                }
+                entries.add(new Entry(kind, name, resource, p,
+                    Boolean.parseBoolean(pinned)));
+                if (kind.equals(DTD.ATLAS)) atlas = name;
+              }
+            }
+            break;
+          case XMLStreamConstants.END_ELEMENT:
+            if (depth == 2) atlas = null;
+            depth--;
+            break;
+        }
+      }
+      r.close();
+    } catch (XMLStreamException e) {
+      throw new IOException("Cannot parse resource index", e);
+    }
+    return new ResourceIndex(entries, regions);
+  }
+
+  /**
+   * Read a compiled index
+   * @param in the compiled index
+   * @return the index
+   * @throws IOException if it cannot be read or is not a compiled index
+   */
+  public static ResourceIndex read(InputStream in) throws IOException {
+    DataInputStream din = new DataInputStream(new BufferedInputStream(in));
+    if (din.readInt() != MAGIC)
+      throw new IOException("Not a compiled resource index");
+    int version = din.readUnsignedShort();
+    if (version != VERSION)
+      throw new IOException("Unsupported resource index version " + version);
+    int count = din.readInt();
+    List<Entry> entries = new ArrayList<Entry>(count);
+    for (int i = 0; i < count; i++) {
+      int kind = din.readUnsignedByte();
+      if (kind >= KINDS.length)
+        throw new IOException("Bad resource kind " + kind);
+      String name = din.readUTF();
+      String resource = din.readUTF();
+      int priority = din.readInt();
+      boolean pinned = din.readBoolean();
+      entries.add(new Entry(KINDS[kind], name, resource, priority, pinned));
+    }
+    count = din.readInt();
+    List<Region> regions = new ArrayList<Region>(count);
+    for (int i = 0; i < count; i++) {
+      regions.add(new Region(din.readUTF(), din.readUTF(), din.readInt(),
+          din.readInt(), din.readInt(), din.readInt()));
+    }
+    return new ResourceIndex(entries, regions);
+  }
+
+  /**
+   * Write this index in compiled form
+   * @param out where to write
+   * @throws IOException
+   */
+  public void write(OutputStream out) throws IOException {
+    DataOutputStream dout = new DataOutputStream(new BufferedOutputStream(out));
+    dout.writeInt(MAGIC);
+    dout.writeShort(VERSION);
+    dout.writeInt(entries.size());
+    for (Entry e : entries) {
+      for (int k = 0; k < KINDS.length; k++) {
+        if (KINDS[k].equals(e.kind)) dout.writeByte(k);
+      }
+      dout.writeUTF(e.name);
+      dout.writeUTF(e.resource);
+      dout.writeInt(e.priority);
+      dout.writeBoolean(e.pinned);
+    }
+    dout.writeInt(regions.size());
+    for (Region g : regions) {
+      dout.writeUTF(g.name);
+      dout.writeUTF(g.atlas);
+      dout.writeInt(g.x);
+      dout.writeInt(g.y);
+      dout.writeInt(g.width);
+      dout.writeInt(g.height);
+    }
+    dout.flush();
+  }
+
+  /**
+   * Read a required integer attribute
+   * @param r the reader, at the start of an element
+   * @param att the attribute name
+   * @param name the name of the element's resource, for errors
+   * @return the value
+   * @throws IOException if it is missing or not an integer
+   */
+  private static int intAttribute(XMLStreamReader r, String att, String name)
+    throws IOException {
+    String value = r.getAttributeValue(null, att);
+    try {
+      return Integer.parseInt(value.trim());
+    } catch (RuntimeException e) {
+      throw new IOException("Bad " + att + " for " + name + ": " + value);
+    }
+  }
+
+  /**
+   * Get the kind of resource an element declares
+   * @param element an element name
+   * @return the kind, or null if the element is not a resource
+   */
+  private static String kindOf(String element) {
+    for (String kind : KINDS) {
+      if (kind.equalsIgnoreCase(element)) return kind;
+    }
+    return null;
+  }
+
+  /**
+   * Compile an xml index.
+   * @param args the xml index file and the compiled file to write
+   * @throws IOException
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length != 2) {
+      System.err.println("Usage: ResourceIndex <index.xml> <index.bin>");
+      System.exit(1);
+    }
+    ResourceIndex index;
+    InputStream in = new FileInputStream(args[0]);
+    try {
+      index = parse(in);
+    } finally {
+      in.close();
+    }
+    OutputStream out = new FileOutputStream(args[1]);
+    try {
+      index.write(out);
+    } finally {
+      out.close();
+    }
+  }
+}
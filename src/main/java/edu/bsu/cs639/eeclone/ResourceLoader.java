@@ -1,31 +1,54 @@
 package edu.bsu.cs639.eeclone;
 
 import java.awt.Graphics2D;
-import java.awt.GraphicsConfiguration;
-import java.awt.GraphicsEnvironment;
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.imageio.ImageIO;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 
 import edu.bsu.cs639.eeclone.audio.OggInputStream;
 import edu.bsu.cs639.eeclone.audio.Sound;
+import edu.bsu.cs639.eeclone.audio.SoundConverter;
+import edu.bsu.cs639.eeclone.audio.SoundManagerFactory;
+import edu.bsu.cs639.util.StartupTimer;
+import edu.bsu.cs639.util.ThreadPool;
 
 /**
  * Loads images.
  * The image naming scheme and resource locations are specified by an xml
  * file, referred to as the <i>index</i> file. 
+ * <p>
+ * Images and sounds are loaded when first requested, or ahead of time and in
+ * parallel by {@link #preload(Collection, ProgressListener)}. Either way,
+ * each is loaded once and cached, within a memory budget for images and 
+ * one for sounds (the eeclone.cache.imageBytes and eeclone.cache.soundBytes
+ * properties): the least recently used are dropped when a budget is 
+ * exceeded, unless the index pins them (see {@link ResourceCache}).
+ * They are taken from the {@link AssetPack} when there is one, and decoded
+ * from their own files otherwise; decoded images can be kept in an 
+ * {@link ImageCache} for later runs.
  * 
  * <p>
  * This class is a singleton: see {@link #instance()}.
@@ -41,6 +64,26 @@ public class ResourceLoader {
 	private static final Map<String,String> keyMap =
 		new TreeMap<String,String>();
 	
+  /** Maps region names to the regions of atlases */
+  private static final Map<String,ResourceIndex.Region> regionMap =
+    new HashMap<String,ResourceIndex.Region>();
+
+  /** 
+   * The keys of the images, sounds and music in the index. 
+   * Atlases are images. 
+   */
+  private static final Set<String> imageNames = new TreeSet<String>();
+  private static final Set<String> soundNames = new TreeSet<String>();
+  private static final Set<String> musicNames = new TreeSet<String>();
+
+  /** The preload priorities of keys that have one */
+  private static final Map<String,Integer> priorities =
+    new HashMap<String,Integer>();
+
+  /** The pinned image keys, and the resource locations of pinned sounds */
+  private static final Set<String> pinnedImages = new HashSet<String>();
+  private static final Set<String> pinnedSounds = new HashSet<String>();
+	
 
   /**
    * Get the classloader that loaded this class. This classloader will have the
@@ -50,10 +93,12 @@ public class ResourceLoader {
   private static ClassLoader cl = ResourceLoader.class.getClassLoader();
   
 	static {
-    String indexFile = "resource_index.xml";
-    InputStream in = cl.getResourceAsStream(indexFile);
-    assert in!=null : "Cannot find resource index file: " + indexFile;
-    init(in);
+    try {
+      init(ResourceIndex.load(cl));
+      StartupTimer.mark("resource index");
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
     /*
 		try {
 			// Read the properties from the file
@@ -78,11 +123,57 @@ public class ResourceLoader {
 
   
   /**
-   * Maps image names to their loaded images.
+   * Maps image names to their loads.
+   * A load is entered before it starts, so each image is loaded only once
+   * however many threads ask for it; the others wait for that load.
    */
-  private Map<String,BufferedImage> imageMap = new HashMap<String,BufferedImage>();
+  private final ConcurrentMap<String,LoadTask<BufferedImage>> imageMap = 
+    new ConcurrentHashMap<String,LoadTask<BufferedImage>>();
 
-  private Map<String,Sound> soundMap = new HashMap<String,Sound>();
+  /**
+   * Maps sound resource locations to their loads, as for images.
+   * This is keyed by resource rather than name so that keys sharing a file
+   * also share its conversion.
+   */
+  private final ConcurrentMap<String,LoadTask<Sound>> soundMap = 
+    new ConcurrentHashMap<String,LoadTask<Sound>>();
+
+  /** The default budget for unpinned images, in bytes */
+  private static final long DEFAULT_IMAGE_BUDGET = 64L << 20;
+
+  /** The default budget for unpinned sounds, in bytes */
+  private static final long DEFAULT_SOUND_BUDGET = 32L << 20;
+
+  /** Keeps loaded images within their budget */
+  private final ResourceCache<BufferedImage> images = 
+    new ResourceCache<BufferedImage>("images",
+      Long.getLong("eeclone.cache.imageBytes", DEFAULT_IMAGE_BUDGET),
+      new ResourceCache.Sizer<BufferedImage>() {
+        public long sizeOf(BufferedImage img) {
+          return (long) img.getWidth() * img.getHeight()
+            * img.getColorModel().getPixelSize() / 8;
+        }
+      },
+      new ResourceCache.Evictor() {
+        public void evicted(String name) { imageMap.remove(name); }
+      });
+
+  /** Keeps loaded sounds within their budget */
+  private final ResourceCache<Sound> sounds = 
+    new ResourceCache<Sound>("sounds",
+      Long.getLong("eeclone.cache.soundBytes", DEFAULT_SOUND_BUDGET),
+      new ResourceCache.Sizer<Sound>() {
+        public long sizeOf(Sound s) { return s.length(); }
+      },
+      new ResourceCache.Evictor() {
+        public void evicted(String resource) { soundMap.remove(resource); }
+      });
+
+  /** The most threads used to preload resources */
+  private static final int MAX_PRELOAD_THREADS = 4;
+
+  /** Preloads resources; created on first use. Guarded by this. */
+  private ThreadPool preloader;
   
   /**
    * Get an instance of the image loader.
@@ -93,19 +184,77 @@ public class ResourceLoader {
     return SINGLETON;
   }
 
-  /** The configuration for the graphics device used to render images */
-  // TODO: determine if this works for fsem vs windowed apps, since fsem can
-  // modify the graphics configuration.
-  private final GraphicsConfiguration gc = GraphicsEnvironment
-      .getLocalGraphicsEnvironment().getDefaultScreenDevice()
-      .getDefaultConfiguration();
+  /** The kind of image into which images are converted */
+  private volatile ImageTarget target = ImageTarget.defaultTarget();
+
+  /** Decoded images and sounds, if an asset pack is available */
+  private final AssetPack pack = AssetPack.find(cl);
+
+  /** Images already converted for a target by earlier runs, or null */
+  private ImageCache imageCache;
+
+  /** The target for which the image cache was opened, or null if not yet */
+  private ImageTarget imageCacheTarget;
+
+  /** Guards the image cache, apart from this loader's lock */
+  private final Object imageCacheLock = new Object();
 
   /**
    * Default constructor. Private constructor enforces the singleton pattern.
    */
   private ResourceLoader() {
+    StartupTimer.mark("ResourceLoader init");
   }
   
+  /**
+   * Set the kind of image into which images are converted, normally that of
+   * the surface they are drawn on. If it differs from the current target, 
+   * images loaded so far are forgotten, so that they are loaded again for 
+   * the new target when next requested; those already handed out still 
+   * work, only more slowly.
+   * 
+   * @param target the new target
+   */
+  public synchronized void setImageTarget(ImageTarget target) {
+    assert target != null;
+    if (target.equals(this.target)) return;
+    this.target = target;
+    imageMap.clear();
+    images.clear();
+  }
+
+  /**
+   * Get the kind of image into which images are converted
+   * @return the current target
+   */
+  public ImageTarget imageTarget() {
+    return target;
+  }
+
+  /**
+   * Get the names of all images in the resource index
+   * @return image names
+   */
+  public Set<String> imageNames() {
+    return Collections.unmodifiableSet(imageNames);
+  }
+
+  /**
+   * Get the names of all sound effects in the resource index
+   * @return sound names
+   */
+  public Set<String> soundNames() {
+    return Collections.unmodifiableSet(soundNames);
+  }
+
+  /**
+   * Get the names of all music in the resource index
+   * @return music names
+   */
+  public Set<String> musicNames() {
+    return Collections.unmodifiableSet(musicNames);
+  }
+
   /**
    * Get an image from this image loader.
    * If it has been loaded previously and is cached, the cached copy
@@ -116,16 +265,88 @@ public class ResourceLoader {
    * @return the loaded image
    */
   public BufferedImage getImage(final String name) {
-    // There is no synchronization here.  Hence, there is a potential for
-    // two threads to load the same image at once, but that's no great loss.
-    BufferedImage img = imageMap.get(name);
-    if (img==null) {
-      img = loadImage(name);
-      if (img!=null) imageMap.put(name,img);
-      // If it wasn't loaded, then load will have reported the error.
-    }
+    LoadTask<BufferedImage> task = imageTask(name, false);
+    BufferedImage img = await(task);
+    // If it wasn't loaded, then load will have reported the error;
+    // forget the attempt so that a later call can try again.
+    if (img==null) imageMap.remove(name, task);
+    else images.touch(name);
     return img;
   }
+
+  /**
+   * Get a region of an atlas. The region draws from the atlas image, which
+   * is loaded if need be.
+   * 
+   * @param name the name of the region, according to the resource index
+   * @return the region, or null if its atlas could not be loaded
+   */
+  public ImageRegion getRegion(final String name) {
+    ResourceIndex.Region r = regionMap.get(name);
+    assert r != null : name;
+    BufferedImage atlas = getImage(r.atlas());
+    if (atlas==null) return null;
+    return new ImageRegion(atlas, r.x(), r.y(), r.width(), r.height());
+  }
+
+  /**
+   * Start loading every image and sound in the resource index on a pool of
+   * worker threads, those with the highest priority first. This method 
+   * returns immediately.
+   * @param listener notified as each resource is loaded, or null
+   * @return one future for each resource
+   * @see #preload(Collection, ProgressListener)
+   */
+  public List<Future<?>> preloadAll(ProgressListener listener) {
+    List<String> names = new ArrayList<String>(imageNames);
+    names.addAll(soundNames);
+    Collections.sort(names, new Comparator<String>() {
+      public int compare(String a, String b) {
+        return priorityOf(b) - priorityOf(a);
+      }
+    });
+    return preload(names, listener);
+  }
+
+  /**
+   * Start loading the given images and sounds on a pool of worker threads.
+   * This method returns immediately. 
+   * <p>
+   * Resources that are already loaded, or being loaded, are not loaded 
+   * again. Music is streamed rather than loaded, so music names are ignored.
+   * 
+   * @param names the names of the resources, according to the resource index
+   * @param listener notified as each resource is loaded, or null.
+   *  It is called on the thread that finished the load, or on this thread
+   *  for resources that were already loaded.
+   * @return a future for each image or sound, in the order of the names;
+   *  its result is the resource, or null if it could not be loaded
+   */
+  public List<Future<?>> preload(Collection<String> names, 
+      final ProgressListener listener) {
+    List<LoadTask<?>> tasks = new ArrayList<LoadTask<?>>(names.size());
+    List<String> loaded = new ArrayList<String>(names.size());
+    for (String name : names) {
+      assert keyMap.containsKey(name) : name;
+      if (imageNames.contains(name)) tasks.add(imageTask(name, true));
+      else if (soundNames.contains(name)) tasks.add(soundTask(name, true));
+      else continue;
+      loaded.add(name);
+    }
+    
+    final int total = tasks.size();
+    final AtomicInteger done = new AtomicInteger();
+    for (int i=0; i<total; i++) {
+      final String name = loaded.get(i);
+      tasks.get(i).whenDone(new Runnable() {
+        public void run() {
+          int n = done.incrementAndGet();
+          if (listener!=null) listener.loaded(name, n, total);
+        }
+      });
+    }
+    return new ArrayList<Future<?>>(tasks);
+  }
   
   /**
    * Get the stream for streaming ogg audio.
@@ -146,21 +367,156 @@ public class ResourceLoader {
   
   /**
    * Get a sound effect.  Use only for small samples that will fit in memory.
+   * The sound is converted to {@link SoundManagerFactory#PLAYBACK_FORMAT} 
+   * when it is loaded, so that all effects share one sound manager.
    * @param name
-   * @return a sound
+   * @return a sound, or null if it could not be loaded
    */
   public Sound getSound(final String name) {
+    LoadTask<Sound> task = soundTask(name, false);
+    Sound s = await(task);
+    if (s==null) soundMap.remove(keyMap.get(name), task);
+    else sounds.touch(keyMap.get(name));
+    return s;
+  }
+
+  /**
+   * Describe the memory used by loaded images and sounds
+   * @return one line for images and one for sounds
+   */
+  public String cacheStats() {
+    return images + "\n" + sounds + "\n";
+  }
+
+  private static int priorityOf(String name) {
+    Integer p = priorities.get(name);
+    return p!=null ? p : 0;
+  }
+
+  /**
+   * Get the load of an image, entering and starting it if there is none.
+   * @param name the name of the image
+   * @param async true to start a new load on the preload pool, 
+   *  false to run it on this thread
+   * @return the image's load
+   */
+  private LoadTask<BufferedImage> imageTask(final String name, boolean async) {
+    LoadTask<BufferedImage> task = imageMap.get(name);
+    if (task==null) {
+      LoadTask<BufferedImage> created = new LoadTask<BufferedImage>(
+          new Callable<BufferedImage>() {
+            public BufferedImage call() {
+              boolean pinned = pinnedImages.contains(name);
+              BufferedImage img = images.recover(name, pinned);
+              if (img==null) {
+                img = loadImage(name);
+                if (img!=null) images.add(name, img, pinned);
+              }
+              return img;
+            }
+          });
+      task = imageMap.putIfAbsent(name, created);
+      if (task==null) {
+        task = created;
+        start(task, async);
+      }
+    }
+    return task;
+  }
+
+  /**
+   * Get the load of a sound, entering and starting it if there is none.
+   * @param name the name of the sound
+   * @param async true to start a new load on the preload pool, 
+   *  false to run it on this thread
+   * @return the sound's load
+   */
+  private LoadTask<Sound> soundTask(final String name, boolean async) {
     assert keyMap.containsKey(name);
+    final String resource = keyMap.get(name);
+    LoadTask<Sound> task = soundMap.get(resource);
+    if (task==null) {
+      LoadTask<Sound> created = new LoadTask<Sound>(new Callable<Sound>() {
+        public Sound call() {
+          boolean pinned = pinnedSounds.contains(resource);
+          Sound s = sounds.recover(resource, pinned);
+          if (s==null) {
+            s = loadSound(resource);
+            if (s!=null) sounds.add(resource, s, pinned);
+          }
+          return s;
+        }
+      });
+      task = soundMap.putIfAbsent(resource, created);
+      if (task==null) {
+        task = created;
+        start(task, async);
+      }
+    }
+    return task;
+  }
+
+  /**
+   * Run a new load, here or on the preload pool.
+   * @param task the load
+   * @param async true to run it on the preload pool
+   */
+  private void start(LoadTask<?> task, boolean async) {
+    if (!async) {
+      task.run();
+      return;
+    }
+    synchronized (this) {
+      if (preloader==null) {
+        preloader = new ThreadPool(Math.max(1, Math.min(MAX_PRELOAD_THREADS,
+            Runtime.getRuntime().availableProcessors())));
+      }
+    }
+    preloader.runTask(task);
+  }
 
-    Sound s = soundMap.get(name);
-    if (s==null) {
-      InputStream in = cl.getResourceAsStream(keyMap.get(name));
-      assert in!=null;
-      s = new Sound(in);
-      soundMap.put(name,s);
+  /**
+   * Wait for a load to finish. A load that is queued but has not started
+   * is run on this thread instead, rather than waiting for its turn; the
+   * preloader then finds it done.
+   * @param task the load
+   * @return its result, or null if it failed or this thread was interrupted
+   */
+  private static <T> T await(LoadTask<T> task) {
+    // Does nothing if the task has already started
+    task.run();
+    try {
+      return task.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return null;
+    } catch (ExecutionException e) {
+      e.getCause().printStackTrace();
+      return null;
+    }
+  }
+
+  /**
+   * Load and convert a sound effect.
+   * @param resource the location of the sound
+   * @return the sound, or null if it could not be loaded
+   */
+  private Sound loadSound(String resource) {
+    Sound packed = pack!=null 
+      ? pack.sound(resource, cl.getResource(resource)) : null;
+    if (packed!=null 
+        && packed.format().matches(SoundManagerFactory.PLAYBACK_FORMAT)) {
+      return packed;
     }
     
-    return s;
+    InputStream in = cl.getResourceAsStream(resource);
+    assert in!=null;
+    try {
+      return SoundConverter.load(in, SoundManagerFactory.PLAYBACK_FORMAT);
+    } catch (Exception e) {
+      e.printStackTrace();
+      return null;
+    }
   }
   
   /**
@@ -174,23 +530,32 @@ public class ResourceLoader {
   	assert keyMap.containsKey(name) : name;
   	
     try {
-      // Read the image as a buffered image using ImageIO.
-    	URL url = cl.getResource(keyMap.get(name));
-    	assert url != null : "Cannot find resource " + keyMap.get(name);
-      BufferedImage img = ImageIO.read(url);
-
-      // Create a copy of the image
-      int transparency = img.getColorModel().getTransparency();
-      BufferedImage copy = gc.createCompatibleImage(img.getWidth(), img
-          .getHeight(), transparency);
-      
-      // Draw the copy, which forces it to be initialized and ready to draw.
-      // Note that this should now be a managed image (and hopefully in VRAM).
-      Graphics2D g = copy.createGraphics();
-      g.drawImage(img,0,0,null);
-      g.dispose();
-      
-      // Return the now-initialized-and-managed copy of the original image.
+      // Take the decoded pixels from the asset pack, unless the image has
+      // changed since the pack was built
+      String resource = keyMap.get(name);
+      ImageTarget target = this.target;
+      URL url = cl.getResource(resource);
+      BufferedImage img = pack!=null ? pack.image(resource, url, target) : null;
+      if (img!=null) return img;
+
+      // Otherwise use the converted copy in the image cache if it is still
+      // current, or else read the image as a buffered image using ImageIO.
+      // The whole file is only read into memory when the cache needs it.
+      assert url != null : "Cannot find resource " + resource;
+      ImageCache imageCache = imageCache(target);
+      if (imageCache==null) {
+        img = ImageIO.read(url);
+        if (img==null) throw new IOException("Cannot decode " + resource);
+        return convert(img, target);
+      }
+      byte[] source = readAll(url);
+      BufferedImage copy = imageCache.get(resource, source);
+      if (copy==null) {
+        img = ImageIO.read(new ByteArrayInputStream(source));
+        if (img==null) throw new IOException("Cannot decode " + resource);
+        copy = convert(img, target);
+        imageCache.put(resource, source, copy);
+      }
       return copy;
       
     } catch (java.io.IOException e) {
@@ -198,83 +563,153 @@ public class ResourceLoader {
     	return null;
     }
   }
+
+  /**
+   * Get the image cache for a target, opening it if it is not open yet.
+   * Only loads call this, so the disk is touched on the threads that load
+   * rather than on the one that sets the target.
+   * @param target the target
+   * @return the cache, or null if there is none for the target
+   */
+  private ImageCache imageCache(ImageTarget target) {
+    synchronized (imageCacheLock) {
+      if (target != imageCacheTarget) {
+        imageCache = ImageCache.create(target);
+        imageCacheTarget = target;
+      }
+      return imageCache;
+    }
+  }
+
+  /**
+   * Copy an image into one of the target's kind.
+   * @param img the decoded image
+   * @param target the target
+   * @return a managed copy of the image
+   */
+  private static BufferedImage convert(BufferedImage img, ImageTarget target) {
+    // Create a copy of the image
+    int transparency = img.getColorModel().getTransparency();
+    BufferedImage copy = target.createImage(img.getWidth(), img
+        .getHeight(), transparency);
+    
+    // Draw the copy, which forces it to be initialized and ready to draw.
+    // Note that this should now be a managed image (and hopefully in VRAM).
+    Graphics2D g = copy.createGraphics();
+    g.drawImage(img,0,0,null);
+    g.dispose();
+    
+    // Return the now-initialized-and-managed copy of the original image.
+    return copy;
+  }
+
+  /**
+   * Read the whole of a resource.
+   * @param url the resource
+   * @return its bytes
+   * @throws IOException
+   */
+  private static byte[] readAll(URL url) throws IOException {
+    InputStream in = url.openStream();
+    try {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buf = new byte[8192];
+      int n;
+      while ((n = in.read(buf)) >= 0) out.write(buf, 0, n);
+      return out.toByteArray();
+    } finally {
+      in.close();
+    }
+  }
   
   
   /**
    * Initialize this resource loader.
-   * This will load and process the resource index file.
-   * After parsing, the {@link #keyMap} will contain the logical names
-   * (keys) and the resource locations for all resources.
+   * After this, the {@link #keyMap} will contain the logical names
+   * (keys) and the resource locations for all resources, the name sets
+   * the keys of each kind, and the priorities and pins of those that have 
+   * them; the {@link #regionMap} will contain the regions of atlases.
    * 
-   * @param in the input stream containing the resource index (in xml)
+   * @param index the resource index
    */
-  private static void init(InputStream in) {
-    try {
-      DocumentBuilder builder = 
-        DocumentBuilderFactory.newInstance().newDocumentBuilder();
-      Document document = builder.parse(in);
-      new IndexParser(document).parse();
-    } catch (Exception e) {
-      e.printStackTrace();
+  private static void init(ResourceIndex index) {
+    for (ResourceIndex.Entry e : index.entries()) {
+      String key = e.name();
+      assert !keyMap.containsKey(key) : key;
+      keyMap.put(key, e.resource());
+      
+      if (e.kind().equals(DTD.IMAGE) || e.kind().equals(DTD.ATLAS)) 
+        imageNames.add(key);
+      else if (e.kind().equals(DTD.MUSIC)) musicNames.add(key);
+      else if (e.kind().equals(DTD.SOUND)) soundNames.add(key);
+      
+      if (e.priority()!=0) priorities.put(key, e.priority());
+      if (e.pinned()) {
+        if (imageNames.contains(key)) pinnedImages.add(key);
+        else if (e.kind().equals(DTD.SOUND)) pinnedSounds.add(e.resource());
+      }
+    }
+    for (ResourceIndex.Region r : index.regions()) {
+      assert !regionMap.containsKey(r.name()) : r.name();
+      assert imageNames.contains(r.atlas()) : r.atlas();
+      regionMap.put(r.name(), r);
     }
   }
   
   /**
-   * Responsible for parsing the resource index.
+   * Receives the progress of a preload, for instance to draw a loading bar.
    * 
    * @author pvg
    */
-  private final static class IndexParser {
-    private final Document document;
-    public IndexParser(Document document) { this.document=document; }
-    public void parse() {
-      NodeList children = document.getChildNodes();
-      for (int i=0; i<children.getLength(); i++) {
-        Node n = children.item(i);
-        if (n.getNodeName().equalsIgnoreCase(DTD.RESOURCE_LIST))
-          parseResourceList((Element)n);
-      }
-    }
-    
-    private void parseResourceList(Element e) {
-      assert e.getNodeName().equalsIgnoreCase(DTD.RESOURCE_LIST);
-      NodeList children = e.getChildNodes();
-      for (int i=0; i<children.getLength(); i++) {
-        Node child = children.item(i);
-        String name = child.getNodeName();
-        if (name.equalsIgnoreCase(DTD.IMAGE)) 
-          parseImage((Element)child);
-        else if (name.equalsIgnoreCase(DTD.MUSIC))
-          parseMusic((Element)child);
-        else if (name.equalsIgnoreCase(DTD.SOUND))
-          parseSound((Element)child);
-      }
-    }
-    
+  public interface ProgressListener {
     /**
-     * Common for parsing leaves with name and resource attributes.
-     * @param e
+     * Called once for each resource of a preload as it finishes loading, 
+     * whether or not it loaded successfully.
+     * @param name the name of the resource
+     * @param loaded the number of resources of the preload now finished
+     * @param total the number of resources in the preload
      */
-    private void parseLeaf(Element e) {
-      String key = e.getAttribute(DTD.NAME_ATT);
-      String resource = e.getAttribute(DTD.RESOURCE_ATT);
-      assert key!=null;
-      assert resource!=null;
-      assert !keyMap.containsKey(key);
-      
-      keyMap.put(key, resource);
-    }
+    public void loaded(String name, int loaded, int total);
+  }
+
+  /**
+   * The load of a single resource, which runs callbacks once it finishes.
+   * 
+   * @author pvg
+   */
+  private static final class LoadTask<T> extends FutureTask<T> {
+    /** Callbacks to run when done. Guarded by itself. */
+    private final List<Runnable> callbacks = new ArrayList<Runnable>(1);
+    
+    private boolean finished;
     
-    private void parseImage(Element e) {
-      parseLeaf(e);
+    LoadTask(Callable<T> loader) {
+      super(loader);
     }
     
-    private void parseMusic(Element e) {
-      parseLeaf(e);
+    /**
+     * Run a callback once this load finishes; immediately if it already has.
+     * @param callback the callback
+     */
+    void whenDone(Runnable callback) {
+      synchronized (callbacks) {
+        if (!finished) {
+          callbacks.add(callback);
+          return;
+        }
+      }
+      callback.run();
     }
     
-    private void parseSound(Element e) {
-      parseLeaf(e);
+    @Override
+    protected void done() {
+      Runnable[] toRun;
+      synchronized (callbacks) {
+        finished = true;
+        toRun = callbacks.toArray(new Runnable[callbacks.size()]);
+        callbacks.clear();
+      }
+      for (Runnable r : toRun) r.run();
     }
   }
 }
@@ -5,38 +5,16 @@
  */
 package edu.bsu.cs639.eeclone;
 
-import edu.bsu.cs639.eeclone.sprites.Sprite;
-import java.awt.Composite;
 import java.awt.Graphics2D;
-import java.awt.Paint;
-import java.awt.font.TextLayout;
-import java.awt.geom.Rectangle2D;
 
 /**
+ * A score keeps track of points by listening to game events: chains,
+ * collected powerups and lost lives. When it awards points for a powerup,
+ * it publishes {@link EventBus#POINTS_AWARDED}.
  *
  * @author david
  */
-public interface Score {
-
- /**
-   * Adjust the score for having collected a powerup
-   * 
-   * @param powerup
-   * @return the number of points added
-   */
-  int add(Sprite.Powerup powerup);
-
-  /**
-   * Add points for adding one more to the given chain.
-   * 
-   * @param chain
-   */
-  public void add(Chain chain);
-
-  /**
-   * Notify the score that the player has lost a life
-   */
-  public void playerLostLife();
+public interface Score extends EventBus.Listener {
 
   public void draw(Graphics2D g);
   
@@ -7,8 +7,6 @@ import java.awt.Paint;
 import java.awt.font.TextLayout;
 import java.awt.geom.Rectangle2D;
 
-import edu.bsu.cs639.eeclone.sprites.Sprite.Powerup;
-
 /**
  * The player's score.
  * 
@@ -34,13 +32,27 @@ public class ScoreClasic implements Score{
 
   private int maxChain = 0;
 
+  public void onEvent(int type, int value, float x, float y) {
+    switch (type) {
+      case EventBus.CHAIN_EXTENDED:
+        chainExtended(value);
+        break;
+      case EventBus.POWERUP_COLLECTED:
+        EventBus.instance().publish(EventBus.POINTS_AWARDED, 
+            powerupCollected(), x, y);
+        break;
+      case EventBus.LIFE_LOST:
+        playerLostLife();
+        break;
+    }
+  }
+
   /**
    * Adjust the score for having collected a powerup
    * 
-   * @param powerup
    * @return the number of points added
    */
-  public int add(Powerup powerup) {
+  private int powerupCollected() {
     int toAdd = nextPowerupValue;
     score += toAdd;
     nextPowerupValue += POWERUP_SCALE;
@@ -48,20 +60,20 @@ public class ScoreClasic implements Score{
   }
 
   /**
-   * Add points for adding one more to the given chain.
+   * Add points for adding one more to a chain.
    * 
-   * @param chain
+   * @param chainSize the size of the chain
    */
-  public void add(Chain chain) {
-    score += chain.size() * CHAIN_FACTOR;
-    if (chain.size() > maxChain)
-      maxChain = chain.size();
+  private void chainExtended(int chainSize) {
+    score += chainSize * CHAIN_FACTOR;
+    if (chainSize > maxChain)
+      maxChain = chainSize;
   }
 
   /**
    * Notify the score that the player has lost a life
    */
-  public void playerLostLife() {
+  private void playerLostLife() {
     nextPowerupValue = BASE_POWERUP_VALUE;
   }
 
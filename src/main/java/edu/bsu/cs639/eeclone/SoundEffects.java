@@ -0,0 +1,65 @@
+package edu.bsu.cs639.eeclone;
+
+import java.io.PrintStream;
+
+import edu.bsu.cs639.eeclone.audio.CoalescingTrigger;
+import edu.bsu.cs639.eeclone.audio.EchoFilter;
+import edu.bsu.cs639.eeclone.audio.FilterChain;
+import edu.bsu.cs639.eeclone.audio.GainFilter;
+import edu.bsu.cs639.eeclone.audio.SoundCommandQueue;
+
+/**
+ * Plays the sound effects for game events.
+ * Events only request sounds; {@link #flush()} plays them once per tick, so
+ * that all the explosions of a tick share one voice.
+ * The merge window can be widened with the eeclone.audio.mergeMillis
+ * property.
+ *
+ * @author pvg
+ */
+final class SoundEffects implements EventBus.Listener {
+
+  private final CoalescingTrigger explosion = new CoalescingTrigger(
+      ResourceLoader.instance().getSound("explosion"),
+      Integer.getInteger("eeclone.audio.mergeMillis", 0));
+
+  /**
+   * Explosion sound filters, indexed by chain size: later explosions in a
+   * chain echo more, and are slightly quieter to leave room for the echo.
+   * The last entry is used for all longer chains.
+   */
+  private final FilterChain[] chainFilters = new FilterChain[6];
+
+  SoundEffects() {
+    for (int i=0; i<chainFilters.length; i++) {
+      chainFilters[i] = new FilterChain(new GainFilter(1f - 0.06f * i),
+          new EchoFilter(90, 0.1f * i));
+    }
+  }
+
+  public void onEvent(int type, int value, float x, float y) {
+    switch (type) {
+      case EventBus.CHAIN_EXTENDED:
+        int level = Math.max(0, Math.min(value, chainFilters.length - 1));
+        explosion.trigger(chainFilters[level]);
+        break;
+    }
+  }
+
+  /**
+   * Play the sounds requested since the last flush
+   */
+  void flush() {
+    explosion.flush();
+  }
+
+  /**
+   * Print how many sound requests were merged
+   * @param out where to print
+   */
+  void printStats(PrintStream out) {
+    out.println("Explosion sounds: " + explosion);
+    out.println("Sound commands dropped: " 
+        + SoundCommandQueue.instance().droppedCount());
+  }
+}
@@ -183,10 +183,12 @@ public class SpriteManager implements Iterable<Sprite> {
   }
   
   /**
-   * Reset this sprite manager, emptying it of all sprites
+   * Reset this sprite manager, emptying it of all sprites, including those
+   * waiting to be added
    */
-  public void reset() {
+  public synchronized void reset() {
     sprites.clear();
+    toAdd.clear();
   }
 
   public Iterator<Sprite> iterator() {
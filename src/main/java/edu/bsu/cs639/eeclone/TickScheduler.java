@@ -0,0 +1,180 @@
+package edu.bsu.cs639.eeclone;
+
+/**
+ * Runs callbacks at a given simulation tick. This is a singleton.
+ * <p>
+ * Anything that only needs to wait some number of updates should schedule
+ * a callback here rather than count ticks in its own update, so that waiting
+ * costs nothing per tick. Callbacks are kept in a hierarchical timing wheel:
+ * four levels of 64 slots each, where a callback due within 64 ticks sits in
+ * the first level and later ones are moved down a level as their time nears.
+ * Scheduling, and firing, are constant-time, and timer nodes are recycled.
+ * <p>
+ * This is not thread-safe; it should only be used from the game loop.
+ *
+ * @author pvg
+ */
+public final class TickScheduler {
+
+  private static final TickScheduler SINGLETON = new TickScheduler();
+
+  public static TickScheduler instance() {
+    return SINGLETON;
+  }
+
+  private static final int BITS = 6;
+  private static final int SLOTS = 1 << BITS;
+  private static final int MASK = SLOTS - 1;
+  private static final int LEVELS = 4;
+
+  /** The furthest ahead a callback can be placed directly */
+  private static final long SPAN = 1L << (BITS * LEVELS);
+
+  /** The most timer nodes kept for reuse */
+  private static final int MAX_POOLED_NODES = 256;
+
+  /** wheels[level][slot] is a list of pending callbacks */
+  private final Node[][] wheels = new Node[LEVELS][SLOTS];
+
+  /** The current tick */
+  private long now;
+
+  /** Recycled nodes */
+  private Node pool;
+
+  private int pooled;
+
+  private TickScheduler() {
+  }
+
+  /**
+   * Get the current tick
+   * @return the number of ticks since the last reset
+   */
+  public long tick() {
+    return now;
+  }
+
+  /**
+   * Schedule a callback.
+   * There is no cancellation, so a callback should check that whatever it
+   * acts on is still in the state it expects.
+   *
+   * @param delay the number of ticks from now at which the callback runs;
+   *  values less than one are treated as one
+   * @param callback the callback
+   */
+  public void schedule(int delay, Runnable callback) {
+    assert callback != null;
+    Node n = pool;
+    if (n == null) n = new Node();
+    else {
+      pool = n.next;
+      pooled--;
+    }
+    n.deadline = now + Math.max(1, delay);
+    n.callback = callback;
+    insert(n);
+  }
+
+  /**
+   * Advance one tick, running every callback due at the new tick.
+   * Callbacks may schedule further callbacks.
+   */
+  public void advance() {
+    now++;
+
+    // Move callbacks down from the higher levels whose slot has come up,
+    // highest first, so each can cascade into the next.
+    if ((now & MASK) == 0) {
+      int level = 1;
+      while (level < LEVELS - 1 && ((now >>> (BITS * level)) & MASK) == 0)
+        level++;
+      for (; level >= 1; level--)
+        cascade(level, (int) ((now >>> (BITS * level)) & MASK));
+    }
+
+    // Everything left in this slot is due now
+    int slot = (int) (now & MASK);
+    Node n = wheels[0][slot];
+    wheels[0][slot] = null;
+    while (n != null) {
+      Node next = n.next;
+      assert n.deadline == now;
+      Runnable callback = n.callback;
+      recycle(n);
+      callback.run();
+      n = next;
+    }
+  }
+
+  /**
+   * Discard all pending callbacks and start counting from zero again.
+   */
+  public void reset() {
+    for (Node[] wheel : wheels) {
+      for (int i = 0; i < SLOTS; i++) {
+        Node n = wheel[i];
+        wheel[i] = null;
+        while (n != null) {
+          Node next = n.next;
+          recycle(n);
+          n = next;
+        }
+      }
+    }
+    now = 0;
+  }
+
+  /**
+   * File a node in the wheel appropriate to its distance from now.
+   * @param n the node
+   */
+  private void insert(Node n) {
+    long delta = n.deadline - now;
+    long position = delta < SPAN ? n.deadline : now + SPAN - 1;
+    int level = 0;
+    while (level < LEVELS - 1 && delta >= (1L << (BITS * (level + 1))))
+      level++;
+    int slot = (int) ((position >>> (BITS * level)) & MASK);
+    n.next = wheels[level][slot];
+    wheels[level][slot] = n;
+  }
+
+  /**
+   * Re-file the nodes of a higher-level slot.
+   * @param level the level
+   * @param slot the slot
+   */
+  private void cascade(int level, int slot) {
+    Node n = wheels[level][slot];
+    wheels[level][slot] = null;
+    while (n != null) {
+      Node next = n.next;
+      insert(n);
+      n = next;
+    }
+  }
+
+  private void recycle(Node n) {
+    n.callback = null;
+    if (pooled < MAX_POOLED_NODES) {
+      n.next = pool;
+      pool = n;
+      pooled++;
+    } else {
+      n.next = null;
+    }
+  }
+
+  /**
+   * A pending callback.
+   *
+   * @author pvg
+   */
+  private static final class Node {
+    private long deadline;
+    private Runnable callback;
+    private Node next;
+  }
+}
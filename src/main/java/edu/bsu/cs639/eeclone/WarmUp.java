@@ -0,0 +1,270 @@
+package edu.bsu.cs639.eeclone;
+
+import java.awt.Graphics2D;
+import java.awt.font.FontRenderContext;
+import java.awt.font.TextLayout;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import edu.bsu.cs639.eeclone.audio.SoundCommandQueue;
+import edu.bsu.cs639.eeclone.audio.SoundManager;
+import edu.bsu.cs639.eeclone.audio.SoundManagerFactory;
+import edu.bsu.cs639.eeclone.sprites.ExplosionSprite;
+import edu.bsu.cs639.eeclone.sprites.Sprite;
+
+/**
+ * Does the one-time work of a session while the menu is shown, so that it
+ * does not stall the first game.
+ * <p>
+ * A background thread loads every resource in the index, opens the sound
+ * effect lines and computes the font metrics used for text. Meanwhile the
+ * game loop runs a few hundred simulated ticks, a handful per menu update,
+ * with flocks flying and being blown up, so that the update, collision and
+ * drawing code is compiled before it matters. Sprites and events produced by
+ * the simulation are discarded; nothing is shown and the score is untouched.
+ * <p>
+ * The time each part took is collected in a report, which is printed when
+ * the warm-up is done if the eeclone.warmup.report property is true.
+ *
+ * @author pvg
+ */
+final class WarmUp {
+
+  /** The number of ticks simulated in all */
+  private static final int SIMULATED_TICKS = 600;
+
+  /** The most ticks simulated per menu update */
+  private static final int TICKS_PER_UPDATE = 5;
+
+  /** Ticks between simulated flocks */
+  private static final int FLOCK_INTERVAL = 30;
+
+  /** Ticks between simulated explosions */
+  private static final int EXPLOSION_INTERVAL = 45;
+
+  /** The longest to wait for the sound effect lines, in milliseconds */
+  private static final long AUDIO_TIMEOUT_MILLIS = 2000;
+
+  private final SpriteManager spriteManager;
+
+  private final ObstacleGenerator generator = new ObstacleGenerator();
+
+  /** Timings in nanoseconds, in the order they were taken. Guarded by itself. */
+  private final Map<String,Long> timings = new LinkedHashMap<String,Long>();
+
+  private Thread loader;
+
+  /** Set once the loader thread has finished */
+  private volatile boolean loaded;
+
+  /** The number of ticks simulated so far */
+  private int ticks;
+
+  private long simulationNanos;
+
+  private boolean reported;
+
+  /** Where simulated frames are drawn */
+  private BufferedImage canvas;
+
+  /**
+   * @param spriteManager the sprite manager used by the game
+   */
+  WarmUp(SpriteManager spriteManager) {
+    assert spriteManager != null;
+    this.spriteManager = spriteManager;
+  }
+
+  /**
+   * Start loading in the background, if that has not been done already.
+   */
+  void start() {
+    if (loader != null) return;
+    loader = new Thread("WarmUp") {
+      @Override
+      public void run() {
+        try {
+          loadResources();
+          openAudio();
+          layoutText();
+        } finally {
+          loaded = true;
+        }
+      }
+    };
+    loader.setDaemon(true);
+    loader.setPriority(Thread.MIN_PRIORITY);
+    loader.start();
+  }
+
+  /**
+   * Check if the warm-up is complete
+   * @return true if done
+   */
+  boolean isDone() {
+    return loaded && ticks == SIMULATED_TICKS;
+  }
+
+  /**
+   * Run the next few simulated ticks. Called on the game loop on each menu
+   * update.
+   */
+  void update() {
+    if (ticks < SIMULATED_TICKS) simulate();
+    if (!reported && isDone()) {
+      reported = true;
+      if (Boolean.getBoolean("eeclone.warmup.report")) System.out.print(report());
+    }
+  }
+
+  /**
+   * Get the times taken so far
+   * @return a report with one line per part of the warm-up
+   */
+  String report() {
+    StringBuilder sb = new StringBuilder("Warm-up:\n");
+    synchronized (timings) {
+      for (Map.Entry<String,Long> e : timings.entrySet()) {
+        sb.append(String.format("  %-24s %8.1f ms%n", e.getKey(),
+            e.getValue() / 1e6));
+      }
+    }
+    return sb.toString();
+  }
+
+  private void record(String part, long nanos) {
+    synchronized (timings) {
+      timings.put(part, nanos);
+    }
+  }
+
+  /**
+   * Load every image, sound and piece of music in the resource index.
+   * Images and sounds are loaded in parallel, and the time at which each
+   * finished is recorded. Music is only opened, which reads its headers and 
+   * sets up the decoder.
+   */
+  private void loadResources() {
+    ResourceLoader rl = ResourceLoader.instance();
+    final long start = System.nanoTime();
+    List<Future<?>> loads = rl.preloadAll(new ResourceLoader.ProgressListener() {
+      public void loaded(String name, int loaded, int total) {
+        record("loaded " + name, System.nanoTime() - start);
+      }
+    });
+    for (Future<?> f : loads) {
+      try {
+        f.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      } catch (ExecutionException e) {
+        // The loader has reported it
+      }
+    }
+    for (String name : rl.musicNames()) {
+      long t = System.nanoTime();
+      InputStream in = rl.getOggStream(name);
+      try {
+        if (in != null) in.close();
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+      record("music " + name, System.nanoTime() - t);
+    }
+    record("resources", System.nanoTime() - start);
+  }
+
+  /**
+   * Create the sound effect manager and wait for its lines to open.
+   */
+  private void openAudio() {
+    long start = System.nanoTime();
+    SoundCommandQueue.instance();
+    SoundManager sm = SoundManagerFactory.instance().get();
+    try {
+      sm.awaitStarted(AUDIO_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    record("audio lines", System.nanoTime() - start);
+  }
+
+  /**
+   * Compute the metrics of the fonts used in the game.
+   */
+  private void layoutText() {
+    long start = System.nanoTime();
+    BufferedImage img = new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB);
+    Graphics2D g = img.createGraphics();
+    FontRenderContext frc = g.getFontRenderContext();
+    new TextLayout("0123456789", Constants.POWERUP_TEXT_FONT, frc).getBounds();
+    new TextLayout("0123456789", Constants.SCORE_FONT, frc).getBounds();
+    g.dispose();
+    record("text layout", System.nanoTime() - start);
+  }
+
+  /**
+   * Finds an obstacle to blow up.
+   */
+  private final Sprite.Visitor obstacleFinder = new Sprite.Visitor.Abstract() {
+    @Override
+    public Object visit(Sprite.Obstacle o, Object arg) {
+      return o;
+    }
+  };
+
+  /**
+   * Simulate up to {@link #TICKS_PER_UPDATE} ticks.
+   */
+  private void simulate() {
+    long start = System.nanoTime();
+    if (canvas == null) {
+      canvas = new BufferedImage(Constants.BOARD_WIDTH, Constants.BOARD_HEIGHT,
+          BufferedImage.TYPE_INT_RGB);
+    }
+    EventBus eventBus = EventBus.instance();
+    Graphics2D g = canvas.createGraphics();
+    try {
+      for (int i = 0; i < TICKS_PER_UPDATE && ticks < SIMULATED_TICKS; i++) {
+        if (ticks % FLOCK_INTERVAL == 0) generator.generateFlock();
+        if (ticks % EXPLOSION_INTERVAL == 0) explodeObstacle();
+        spriteManager.update();
+        spriteManager.drawAll(g);
+        eventBus.clear();
+        ticks++;
+      }
+    } finally {
+      g.dispose();
+    }
+    simulationNanos += System.nanoTime() - start;
+
+    if (ticks == SIMULATED_TICKS) {
+      spriteManager.reset();
+      TickScheduler.instance().reset();
+      canvas = null;
+      record("simulation (" + SIMULATED_TICKS + " ticks)", simulationNanos);
+    }
+  }
+
+  /**
+   * Start a chain at the first obstacle, if there is one
+   */
+  private void explodeObstacle() {
+    for (Sprite s : spriteManager) {
+      Sprite o = (Sprite) s.accept(obstacleFinder, null);
+      if (o != null) {
+        spriteManager.add(new ExplosionSprite(o.x() + o.width() / 2,
+            o.y() + o.height() / 2, new Chain()));
+        return;
+      }
+    }
+  }
+}
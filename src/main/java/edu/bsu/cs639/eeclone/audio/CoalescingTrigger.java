@@ -0,0 +1,120 @@
+package edu.bsu.cs639.eeclone.audio;
+
+/**
+ * Merges repeated plays of one sound into a single voice.
+ * <p>
+ * Plays requested with {@link #trigger(FilterChain)} are only counted; the
+ * next {@link #flush()} starts one voice for all of them, whose gain grows
+ * with the square root of the count, as the loudness of that many separate
+ * voices would. A long chain of explosions thus costs one voice per flush
+ * rather than one per explosion. With a window, a voice is started at most
+ * once per window and requests are carried over until it has passed.
+ * Voices are started through the {@link SoundCommandQueue}, so a flush
+ * never waits on the audio system.
+ * <p>
+ * This is not thread-safe; requests and flushes should come from one thread,
+ * normally the game loop, which flushes once per tick.
+ *
+ * @author pvg
+ */
+public final class CoalescingTrigger {
+
+  /** The loudest a merged voice is made */
+  public static final float MAX_GAIN = 2f;
+
+  private final Sound sound;
+
+  /** The shortest time between voices, in nanoseconds */
+  private final long windowNanos;
+
+  /** The number of plays requested since the last voice */
+  private int pending;
+
+  /** The filters of the latest request */
+  private FilterChain pendingFilters;
+
+  /** When the last voice started, from {@link System#nanoTime()} */
+  private long lastVoice;
+
+  private long requestCount, voiceCount;
+
+  /**
+   * Create a trigger that starts at most one voice per flush
+   * @param sound the sound to play
+   */
+  public CoalescingTrigger(Sound sound) {
+    this(sound, 0);
+  }
+
+  /**
+   * Create a trigger
+   * @param sound the sound to play
+   * @param windowMillis the shortest time between voices, in milliseconds
+   */
+  public CoalescingTrigger(Sound sound, int windowMillis) {
+    assert sound != null;
+    assert windowMillis >= 0;
+    this.sound = sound;
+    this.windowNanos = windowMillis * 1000000L;
+    this.lastVoice = System.nanoTime() - windowNanos;
+  }
+
+  /**
+   * Request a play of the sound. Of the requests merged into one voice, the
+   * filters of the latest are used.
+   * @param filters the filters to apply, or null for none
+   */
+  public void trigger(FilterChain filters) {
+    pending++;
+    pendingFilters = filters;
+    requestCount++;
+  }
+
+  /**
+   * Start a voice for the pending requests, if there are any and the window
+   * has passed.
+   */
+  public void flush() {
+    if (pending == 0) return;
+    long now = System.nanoTime();
+    if (now - lastVoice < windowNanos) return;
+
+    float gain = Math.min(MAX_GAIN, (float) Math.sqrt(pending));
+    SoundCommandQueue.instance().play(sound, pendingFilters, gain);
+    lastVoice = now;
+    voiceCount++;
+    pending = 0;
+    pendingFilters = null;
+  }
+
+  /**
+   * Get the number of plays requested
+   * @return request count
+   */
+  public long requestCount() {
+    return requestCount;
+  }
+
+  /**
+   * Get the number of voices started
+   * @return voice count
+   */
+  public long voiceCount() {
+    return voiceCount;
+  }
+
+  /**
+   * Get the number of requests that were merged into another's voice,
+   * including any still pending
+   * @return merged count
+   */
+  public long mergedCount() {
+    return requestCount - voiceCount;
+  }
+
+  @Override
+  public String toString() {
+    return requestCount + " plays, " + voiceCount + " voices, "
+      + mergedCount() + " merged";
+  }
+}
@@ -0,0 +1,70 @@
+package edu.bsu.cs639.eeclone.audio;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * Adds a repeating, decaying echo to a sound.
+ * The state is a delay line holding the last output of each channel.
+ * 
+ * @author pvg
+ */
+public final class EchoFilter extends SoundFilter {
+
+  /** Echoes quieter than this fraction of the original are not played out */
+  private static final double AUDIBLE = 0.01;
+
+  private final int delayMillis;
+
+  private final float decay;
+
+  /**
+   * @param delayMillis the time between echoes, in milliseconds
+   * @param decay the volume of each echo relative to the previous one, 
+   *  from 0 up to, but not including, 1
+   */
+  public EchoFilter(int delayMillis, float decay) {
+    assert delayMillis > 0;
+    assert decay >= 0 && decay < 1;
+    this.delayMillis = delayMillis;
+    this.decay = decay;
+  }
+
+  /**
+   * @param format playback format
+   * @return the echo delay, in frames
+   */
+  private int delayFrames(AudioFormat format) {
+    return Math.max(1, Math.round(format.getSampleRate() * delayMillis / 1000f));
+  }
+
+  @Override
+  public int stateSize(AudioFormat format) {
+    return delayFrames(format) * format.getChannels();
+  }
+
+  @Override
+  public int tailSize(AudioFormat format) {
+    if (decay == 0) return 0;
+    int echoes = (int) Math.ceil(Math.log(AUDIBLE) / Math.log(decay));
+    return echoes * delayFrames(format) * format.getFrameSize();
+  }
+
+  @Override
+  public void filter(byte[] samples, int offset, int length,
+      AudioFormat format, float[] state, int stateOffset, long frame) {
+    boolean bigEndian = format.isBigEndian();
+    int channels = format.getChannels();
+    int delay = delayFrames(format);
+    int slot = (int) (frame % delay);
+    for (int i = offset; i < offset + length; i += 2 * channels) {
+      int base = stateOffset + slot * channels;
+      for (int c = 0; c < channels; c++) {
+        int pos = i + 2 * c;
+        float y = getSample(samples, pos, bigEndian) + decay * state[base + c];
+        state[base + c] = y;
+        setSample(samples, pos, y, bigEndian);
+      }
+      if (++slot == delay) slot = 0;
+    }
+  }
+}
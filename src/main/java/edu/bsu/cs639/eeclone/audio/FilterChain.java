@@ -0,0 +1,64 @@
+package edu.bsu.cs639.eeclone.audio;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * An ordered, immutable sequence of sound filters.
+ * A chain is built once and may be passed to any number of 
+ * {@link SoundManager#play(Sound, FilterChain, boolean)} calls.
+ * 
+ * @author pvg
+ */
+public final class FilterChain {
+
+  private final SoundFilter[] filters;
+
+  /**
+   * Create a filter chain
+   * @param filters the filters, in the order they are applied
+   */
+  public FilterChain(SoundFilter... filters) {
+    this.filters = filters.clone();
+  }
+
+  /**
+   * Get the total state needed by this chain's filters
+   * @param format playback format
+   * @return state size, in floats
+   */
+  public int stateSize(AudioFormat format) {
+    int size = 0;
+    for (SoundFilter f : filters) size += f.stateSize(format);
+    return size;
+  }
+
+  /**
+   * Get the total tail of this chain's filters
+   * @param format playback format
+   * @return tail size, in bytes
+   */
+  public int tailSize(AudioFormat format) {
+    int size = 0;
+    for (SoundFilter f : filters) size += f.tailSize(format);
+    return size;
+  }
+
+  /**
+   * Run a chunk through every filter in the chain.
+   * @param samples the buffer holding the data
+   * @param offset offset of the chunk
+   * @param length length of the chunk, in bytes
+   * @param format the format of the data
+   * @param state the voice's state array, at least {@link #stateSize} long
+   * @param frame the index of the chunk's first frame in the sound
+   * @see SoundFilter#filter
+   */
+  public void filter(byte[] samples, int offset, int length, 
+      AudioFormat format, float[] state, long frame) {
+    int stateOffset = 0;
+    for (SoundFilter f : filters) {
+      f.filter(samples, offset, length, format, state, stateOffset, frame);
+      stateOffset += f.stateSize(format);
+    }
+  }
+}
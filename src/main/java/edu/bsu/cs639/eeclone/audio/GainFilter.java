@@ -0,0 +1,43 @@
+package edu.bsu.cs639.eeclone.audio;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * Scales the volume of a sound.
+ * 
+ * @author pvg
+ */
+public final class GainFilter extends SoundFilter {
+
+  private final float gain;
+
+  /**
+   * @param gain the factor by which samples are multiplied
+   */
+  public GainFilter(float gain) {
+    assert gain >= 0;
+    this.gain = gain;
+  }
+
+  @Override
+  public void filter(byte[] samples, int offset, int length,
+      AudioFormat format, float[] state, int stateOffset, long frame) {
+    apply(samples, offset, length, format, gain);
+  }
+
+  /**
+   * Scale a chunk of samples.
+   * @param samples the buffer holding the data
+   * @param offset offset of the chunk
+   * @param length length of the chunk, in bytes
+   * @param format the format of the data
+   * @param gain the factor by which samples are multiplied
+   */
+  static void apply(byte[] samples, int offset, int length, 
+      AudioFormat format, float gain) {
+    boolean bigEndian = format.isBigEndian();
+    for (int i = offset; i < offset + length; i += 2) {
+      setSample(samples, i, getSample(samples, i, bigEndian) * gain, bigEndian);
+    }
+  }
+}
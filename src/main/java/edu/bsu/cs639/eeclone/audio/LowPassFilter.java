@@ -0,0 +1,45 @@
+package edu.bsu.cs639.eeclone.audio;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * A one-pole low-pass filter, which muffles a sound.
+ * The state is the previous output of each channel.
+ * 
+ * @author pvg
+ */
+public final class LowPassFilter extends SoundFilter {
+
+  private final float cutoff;
+
+  /**
+   * @param cutoff the cutoff frequency, in Hz
+   */
+  public LowPassFilter(float cutoff) {
+    assert cutoff > 0;
+    this.cutoff = cutoff;
+  }
+
+  @Override
+  public int stateSize(AudioFormat format) {
+    return format.getChannels();
+  }
+
+  @Override
+  public void filter(byte[] samples, int offset, int length,
+      AudioFormat format, float[] state, int stateOffset, long frame) {
+    boolean bigEndian = format.isBigEndian();
+    int channels = format.getChannels();
+    float alpha = (float) (1 - Math.exp(-2 * Math.PI * cutoff 
+        / format.getSampleRate()));
+    for (int i = offset; i < offset + length; i += 2 * channels) {
+      for (int c = 0; c < channels; c++) {
+        int pos = i + 2 * c;
+        float y = state[stateOffset + c];
+        y += alpha * (getSample(samples, pos, bigEndian) - y);
+        state[stateOffset + c] = y;
+        setSample(samples, pos, y, bigEndian);
+      }
+    }
+  }
+}
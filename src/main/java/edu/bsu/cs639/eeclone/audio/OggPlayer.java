@@ -1,5 +1,8 @@
 package edu.bsu.cs639.eeclone.audio;
 
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+
 import javax.sound.sampled.AudioFormat;
 import javax.sound.sampled.AudioSystem;
 import javax.sound.sampled.DataLine;
@@ -8,13 +11,17 @@ import javax.sound.sampled.SourceDataLine;
 /**
  * Plays ogg streams as background music.
  * This is a singleton.
+ * <p>
+ * Music can be prepared ahead of time with 
+ * {@link #prepare(Callable, boolean)}: the stream is opened, the line 
+ * acquired and the line's buffer filled on the player's thread, which then 
+ * waits for {@link #start()}. Starting prepared music costs the caller 
+ * nothing but a wake-up.
  * 
  * @author pvg
  */
 public final class OggPlayer {
   
-  //TODO: implement pause/continue
-  
   private static final OggPlayer SINGLETON = new OggPlayer();
   /**
    * Get the singleton oggplayer for this runtime.
@@ -25,23 +32,91 @@ public final class OggPlayer {
 
   private PlayThread thread;
   
+  /** Initial capacity of the decoded image kept for looping streams */
+  private static final int INITIAL_IMAGE_SIZE = 1 << 20;
+
   /**
-   * Play the provided ogg stream.
+   * Play the provided ogg stream once.
    * @param in
    */
   public void play(OggInputStream in) {
+    play(in, false);
+  }
+
+  /**
+   * Play the provided ogg stream, optionally looping until stopped.
+   * <p>
+   * A looping stream is decoded only once. The decoded PCM is kept as it is
+   * played, and every later pass is written from that image to the same line,
+   * so the wrap from the last sample to the first has no gap and does not
+   * reopen the resource or re-initialize the decoder.
+   * 
+   * @param in the stream to play
+   * @param loop true to loop the stream until {@link #stop()} is called
+   */
+  public synchronized void play(final OggInputStream in, boolean loop) {
+    prepare(new Callable<OggInputStream>() {
+      public OggInputStream call() { return in; }
+    }, loop);
+    start();
+  }
+
+  /**
+   * Open a stream and get it ready to play, on the player's own thread.
+   * The music does not play until {@link #start()} is called.
+   * 
+   * @param opener opens the stream; called on the player's thread
+   * @param loop true to loop the stream until {@link #stop()} is called
+   */
+  public synchronized void prepare(Callable<OggInputStream> opener, 
+      boolean loop) {
     if(thread!=null)
       throw new IllegalStateException("Cannot start; another thread is running");
     else {
-      thread = new PlayThread(in);
+      thread = new PlayThread(opener, loop);
       thread.start();
     }
   }
+
+  /**
+   * Check if music has been prepared and not yet started
+   * @return true if {@link #start()} would start prepared music
+   */
+  public synchronized boolean isPrepared() {
+    return thread!=null && !thread.isReleased();
+  }
+
+  /**
+   * Start the prepared music. If the stream is still being opened, it plays
+   * as soon as it is ready.
+   */
+  public synchronized void start() {
+    if (thread==null)
+      throw new IllegalStateException("Cannot start; nothing is prepared");
+    thread.release();
+  }
   
   /**
-   * Stop playing music.
+   * Check if there is music playing, paused or prepared
+   * @return true until {@link #stop()} is called
    */
-  public void stop() {
+  public synchronized boolean hasMusic() {
+    return thread!=null;
+  }
+
+  /**
+   * Pause or continue the music. The stream keeps its place, and the line
+   * is stopped while paused.
+   * @param paused true to pause, false to continue
+   */
+  public synchronized void setPaused(boolean paused) {
+    if (thread!=null) thread.setPaused(paused);
+  }
+  
+  /**
+   * Stop playing music, or discard prepared music.
+   */
+  public synchronized void stop() {
     thread.requestStop();
     thread = null;
   }
@@ -53,21 +128,86 @@ public final class OggPlayer {
    */
   private final class PlayThread extends Thread {
     
-    private final OggInputStream oggStream;
+    private final Callable<OggInputStream> opener;
+    
+    /** Indicates if the stream should be looped until stopped */
+    private final boolean loop;
+    
+    private volatile boolean stopRequested = false;
+    
+    /** Opened when the music should start playing, or stop */
+    private final CountDownLatch released = new CountDownLatch(1);
+    
+    /** 
+     * The decoded PCM of the stream, kept only when looping.
+     * Only the first {@link #imageSize} bytes are valid.
+     */
+    private byte[] image;
+    
+    private int imageSize;
+    
+    public PlayThread(Callable<OggInputStream> opener, boolean loop) {
+      super("OggPlayer");
+      // A prepared stream that is never started must not keep the VM alive
+      setDaemon(true);
+      this.opener = opener;
+      this.loop = loop;
+      if (loop) image = new byte[INITIAL_IMAGE_SIZE];
+    }
+    
+    /** Guarded by this thread */
+    private boolean paused;
     
-    private boolean stopRequested = false;
+    public void requestStop() { 
+      stopRequested = true; 
+      released.countDown();
+      setPaused(false);
+    }
     
-    public PlayThread(OggInputStream in) {
-      this.oggStream = in;
+    public synchronized void setPaused(boolean paused) {
+      this.paused = paused;
+      if (!paused) notifyAll();
     }
     
-    public void requestStop() { stopRequested = true; }
+    /**
+     * Wait while paused, with the line stopped.
+     * @param line the line being written
+     * @throws InterruptedException
+     */
+    private synchronized void checkPaused(SourceDataLine line) 
+      throws InterruptedException {
+      if (!paused) return;
+      line.stop();
+      while (paused) wait();
+      line.start();
+    }
+    
+    public void release() { released.countDown(); }
+    
+    public boolean isReleased() { return released.getCount()==0; }
+    
+    /**
+     * Append decoded data to the loop image, growing it if necessary.
+     * @param data decoded PCM
+     * @param len number of bytes of data to append
+     */
+    private void appendToImage(byte[] data, int len) {
+      if (imageSize + len > image.length) {
+        byte[] bigger = new byte[Math.max(image.length * 2, imageSize + len)];
+        System.arraycopy(image, 0, bigger, 0, imageSize);
+        image = bigger;
+      }
+      System.arraycopy(data, 0, image, imageSize, len);
+      imageSize += len;
+    }
     
     @Override
     public void run() {
       byte[] buffer = new byte[512]; 
       
       try {
+        OggInputStream oggStream = opener.call();
+        if (oggStream==null) return;
         /*
         AudioFormat decodedFormat = new AudioFormat(
           AudioFormat.Encoding.PCM_SIGNED, 
@@ -89,31 +229,45 @@ public final class OggPlayer {
         SourceDataLine line = (SourceDataLine)AudioSystem.getLine(lineInfo);
       
         line.open(decodedFormat);
-        line.start();
-        
         
+        // Decode ahead into the line's buffer until told to start; what is
+        // written before the line starts is played as soon as it does.
         int nBytesRead = 0;
+        while (!isReleased() && nBytesRead != -1 
+            && line.available() >= buffer.length) {
+          nBytesRead = oggStream.read(buffer, 0, buffer.length);
+          if (nBytesRead != -1) {
+            if (loop) appendToImage(buffer, nBytesRead);
+            line.write(buffer, 0, nBytesRead);
+          }
+        }
+        released.await();
+        line.start();
+        
         while (nBytesRead != -1 && !stopRequested) {
           
           // Check if we should pause
-          /*
-          synchronized (this) {
-            if (paused) {
-              try {
-                line.stop();
-                wait();
-                line.start();
-              } catch (InterruptedException e) {
-              }
-            }
-            assert !paused;
-          }*/
+          checkPaused(line);
           
           nBytesRead = oggStream.read(buffer, 0, buffer.length);
           if (nBytesRead != -1 && !stopRequested) {
+            if (loop) appendToImage(buffer, nBytesRead);
             line.write(buffer, 0, nBytesRead);
           }
         }
+        
+        // The stream has been decoded once; every later pass comes straight 
+        // from the image, wrapping around without draining the line.
+        if (loop && imageSize > 0) {
+          int pos = 0;
+          while (!stopRequested) {
+            checkPaused(line);
+            int n = Math.min(buffer.length, imageSize - pos);
+            line.write(image, pos, n);
+            pos += n;
+            if (pos == imageSize) pos = 0;
+          }
+        }
 
         // Stop
         if (!stopRequested) line.drain();
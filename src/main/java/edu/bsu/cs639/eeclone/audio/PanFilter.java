@@ -0,0 +1,36 @@
+package edu.bsu.cs639.eeclone.audio;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * Moves a stereo sound to the left or right.
+ * Sounds with other than two channels are left unchanged.
+ * 
+ * @author pvg
+ */
+public final class PanFilter extends SoundFilter {
+
+  private final float leftGain, rightGain;
+
+  /**
+   * @param pan the position of the sound, from -1 (left) to 1 (right)
+   */
+  public PanFilter(float pan) {
+    assert pan >= -1f && pan <= 1f;
+    this.leftGain = Math.min(1f, 1f - pan);
+    this.rightGain = Math.min(1f, 1f + pan);
+  }
+
+  @Override
+  public void filter(byte[] samples, int offset, int length,
+      AudioFormat format, float[] state, int stateOffset, long frame) {
+    if (format.getChannels() != 2) return;
+    boolean bigEndian = format.isBigEndian();
+    for (int i = offset; i < offset + length; i += 4) {
+      setSample(samples, i, getSample(samples, i, bigEndian) * leftGain, 
+          bigEndian);
+      setSample(samples, i + 2, getSample(samples, i + 2, bigEndian) * rightGain, 
+          bigEndian);
+    }
+  }
+}
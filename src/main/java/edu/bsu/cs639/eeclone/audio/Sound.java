@@ -1,9 +1,9 @@
 package edu.bsu.cs639.eeclone.audio;
 
-import java.io.ByteArrayInputStream;
-import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 import javax.sound.sampled.AudioFormat;
 import javax.sound.sampled.AudioInputStream;
@@ -12,12 +12,15 @@ import javax.sound.sampled.DataLine;
 import javax.sound.sampled.LineUnavailableException;
 import javax.sound.sampled.SourceDataLine;
 
-import edu.bsu.cs639.util.LoopingByteInputStream;
-
 /**
  * A buffered sound effect. Note that this should be used only for small audio
  * samples, not music.
  * <p>
+ * The samples are held off-heap in a read-only direct buffer that is shared 
+ * by every playback of the sound. Each playback reads through its own view
+ * of that buffer (see {@link #samples()}), so starting a playback creates
+ * neither a stream nor a copy of the sample.
+ * <p>
  * This is based in part 
  * on Steven Fletcher's code from the cowcodgames.com tutorial on
  * java sound.
@@ -31,8 +34,11 @@ public class Sound {
   /** The format of the audio */
   private AudioFormat format;
 
-  /** The audio data buffer */
-  private byte[] buffer;
+  /** Size of the chunks used to copy audio data onto a line or into memory */
+  private static final int CHUNK_SIZE = 4096;
+
+  /** The audio data, in a read-only direct buffer */
+  private ByteBuffer samples;
   
   /**
    * Create a sound object from the data on the input stream.
@@ -52,7 +58,22 @@ public class Sound {
   } 
 
   /**
-   * Converts the Sound's AudioInputStream to a ByteArrayInputStream.
+   * Create a sound object from samples that are already in memory.
+   * The buffer is not copied; its content from position to limit is used as
+   * the sound's data, and should not be modified afterwards.
+   * 
+   * @param format the format of the samples
+   * @param samples the sample data, preferably a direct or mapped buffer
+   */
+  public Sound(AudioFormat format, ByteBuffer samples) {
+    assert format!=null;
+    assert samples!=null;
+    this.format = format;
+    this.samples = samples.slice().asReadOnlyBuffer();
+  }
+
+  /**
+   * Copies the Sound's AudioInputStream into a direct buffer.
    * 
    * @param audioStream 
    *          the AudioInputStream to convert
@@ -63,11 +84,18 @@ public class Sound {
     // get the number of bytes to read
     int length = (int) (audioStream.getFrameLength() * format.getFrameSize());
 
-    // read the entire stream
-    buffer = new byte[length];
-    DataInputStream is = new DataInputStream(audioStream);
-    is.readFully(buffer);
-    is.close();
+    // read the entire stream, a chunk at a time, into off-heap storage
+    ByteBuffer data = ByteBuffer.allocateDirect(length);
+    byte[] chunk = new byte[Math.min(length, CHUNK_SIZE)];
+    while (data.hasRemaining()) {
+      int n = audioStream.read(chunk, 0, Math.min(chunk.length, data.remaining()));
+      if (n == -1) throw new EOFException();
+      data.put(chunk, 0, n);
+    }
+    audioStream.close();
+    
+    data.flip();
+    samples = data.asReadOnlyBuffer();
   } // end loadAudioStream
   
   /**
@@ -75,17 +103,42 @@ public class Sound {
    * @return sound format
    */
   public AudioFormat format() { return format; }
+  
+  /**
+   * Get the length of this sound's data
+   * @return length in bytes
+   */
+  public int length() { return samples.limit(); }
+  
+  /**
+   * Get a view of this sound's data. The view shares the underlying storage
+   * but has its own position, so it can be used as a playback cursor
+   * independently of any other playback of this sound.
+   * @return read-only view of the samples, positioned at the start
+   */
+  public ByteBuffer samples() { return samples.duplicate(); }
 
   /**
-   * Create a line that is compatible with the data in this sound
+   * Create a line that is compatible with the data in this sound, with the 
+   * default buffer size of a sound manager.
    * @return line
    */
   public SourceDataLine createCompatibleLine() {
+    return createCompatibleLine(Math.min(length(), 
+        SoundManager.bytesFor(format, SoundManager.DEFAULT_BUFFER_MILLIS)));
+  }
+
+  /**
+   * Create a line that is compatible with the data in this sound
+   * @param bufferSize the size of the line's buffer, in bytes
+   * @return line
+   */
+  public SourceDataLine createCompatibleLine(int bufferSize) {
     SourceDataLine line;
     try {
       DataLine.Info info = new DataLine.Info(SourceDataLine.class, format);
       line = (SourceDataLine)AudioSystem.getLine(info);
-      line.open(format, buffer.length);
+      line.open(format, Math.max(bufferSize, format.getFrameSize()));
       line.start();
       return line;
     } catch(LineUnavailableException exception) {
@@ -102,8 +155,13 @@ public class Sound {
    * @param line an initialized line
    */
   public void play(SourceDataLine line) {
-    
-    line.write(buffer, 0, buffer.length);
+    ByteBuffer cursor = samples();
+    byte[] chunk = new byte[Math.min(cursor.remaining(), CHUNK_SIZE)];
+    while (cursor.hasRemaining()) {
+      int n = Math.min(chunk.length, cursor.remaining());
+      cursor.get(chunk, 0, n);
+      line.write(chunk, 0, n);
+    }
     
     // wait until the sound is finished playing
     line.drain();
@@ -121,19 +179,6 @@ public class Sound {
     line.close();
   }
   
-  /**
-   * Get an input stream that provides the raw data of this sound.
-   * @return input stream that reads this sound
-   */
-  public InputStream asStream() { return new ByteArrayInputStream(buffer); }
-  
-  /**
-   * Get an input stream that provides this sound in an endless loop.
-   * @return looping input stream for this sound
-   */
-  public InputStream asLoopingStream() 
-  { return new LoopingByteInputStream(buffer); }
-  
   /**
    * Test this class
    * @param args ignored
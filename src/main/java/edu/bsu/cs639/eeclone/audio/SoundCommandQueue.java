@@ -0,0 +1,156 @@
+package edu.bsu.cs639.eeclone.audio;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hands sound effect plays, and pausing, from the game loop to an audio
+ * thread. This is a singleton.
+ * <p>
+ * A play command is written into a preallocated ring and the audio thread,
+ * which sleeps while the ring is empty, passes it on to the
+ * {@link SoundManager}. Posting a command therefore takes no lock and never
+ * waits: creating the manager, opening its lines and queueing its tasks all
+ * happen on the audio thread. If the ring is full, the command is dropped.
+ * Pausing is a flag rather than a command, so that it is never dropped; the
+ * audio thread applies it before the next play.
+ * <p>
+ * Commands must be posted from one thread at a time, normally the game loop.
+ *
+ * @author pvg
+ */
+public final class SoundCommandQueue {
+
+  private static final SoundCommandQueue SINGLETON = new SoundCommandQueue();
+
+  public static SoundCommandQueue instance() {
+    return SINGLETON;
+  }
+
+  /** The number of commands the ring holds; a power of two */
+  private static final int CAPACITY = 256;
+
+  private static final int MASK = CAPACITY - 1;
+
+  /** The commands, one array per field */
+  private final Sound[] sounds = new Sound[CAPACITY];
+  private final FilterChain[] filters = new FilterChain[CAPACITY];
+  private final float[] gains = new float[CAPACITY];
+  private final long[] triggered = new long[CAPACITY];
+
+  /** The index of the next command to read; written by the audio thread */
+  private final AtomicLong head = new AtomicLong();
+
+  /** The index of the next command to write; written by the poster */
+  private final AtomicLong tail = new AtomicLong();
+
+  /** Set while the audio thread is, or is about to be, parked */
+  private volatile boolean sleeping;
+
+  /** Whether sound effects should be paused; written by the poster */
+  private volatile boolean paused;
+
+  /** The paused state last given to the manager; used by the audio thread */
+  private boolean pausedApplied;
+
+  private final AtomicLong droppedCount = new AtomicLong();
+
+  private final Thread thread;
+
+  private SoundCommandQueue() {
+    thread = new Thread("SoundCommands") {
+      @Override
+      public void run() {
+        consume();
+      }
+    };
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Play a sound effect. This method returns immediately.
+   * @param sound the sound to play
+   * @param filterChain the filters to apply, or null for none
+   * @param gain the factor by which the filtered samples are multiplied
+   * @return false if the command was dropped because the queue is full
+   */
+  public boolean play(Sound sound, FilterChain filterChain, float gain) {
+    assert sound != null;
+    long t = tail.get();
+    if (t - head.get() == CAPACITY) {
+      droppedCount.incrementAndGet();
+      return false;
+    }
+    int i = (int) (t & MASK);
+    sounds[i] = sound;
+    filters[i] = filterChain;
+    gains[i] = gain;
+    triggered[i] = System.nanoTime();
+    tail.set(t + 1);
+
+    // The write to tail above is ordered before this read, and the audio
+    // thread sets the flag before checking tail, so a wakeup is not lost.
+    if (sleeping) LockSupport.unpark(thread);
+    return true;
+  }
+
+  /**
+   * Pause or resume sound effects. This method returns immediately.
+   * @param paused desired paused state
+   */
+  public void setPaused(boolean paused) {
+    this.paused = paused;
+    // As in play: the write is ordered before the read of the flag
+    if (sleeping) LockSupport.unpark(thread);
+  }
+
+  /**
+   * Get the number of commands dropped because the queue was full
+   * @return dropped count
+   */
+  public long droppedCount() {
+    return droppedCount.get();
+  }
+
+  /**
+   * Run commands as they arrive. Called only on the audio thread.
+   */
+  private void consume() {
+    while (true) {
+      boolean p = paused;
+      if (p != pausedApplied) {
+        pausedApplied = p;
+        try {
+          SoundManagerFactory.instance().get().setPaused(p);
+        } catch (RuntimeException ex) {
+          ex.printStackTrace();
+        }
+      }
+
+      long h = head.get();
+      if (h == tail.get()) {
+        sleeping = true;
+        if (h == tail.get() && paused == pausedApplied) LockSupport.park(this);
+        sleeping = false;
+        continue;
+      }
+
+      int i = (int) (h & MASK);
+      Sound sound = sounds[i];
+      FilterChain filterChain = filters[i];
+      float gain = gains[i];
+      long time = triggered[i];
+      sounds[i] = null;
+      filters[i] = null;
+      head.lazySet(h + 1);
+
+      try {
+        SoundManagerFactory.instance().get().play(sound, filterChain, gain,
+            false, time);
+      } catch (RuntimeException ex) {
+        ex.printStackTrace();
+      }
+    }
+  }
+}
@@ -0,0 +1,134 @@
+package edu.bsu.cs639.eeclone.audio;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+/**
+ * Loads sound effects into a single playback format.
+ * <p>
+ * The source is first decoded to 16 bit signed PCM by Java Sound, and the
+ * channel conversion (mixing down or duplicating channels) and resampling
+ * (linear interpolation) are done here, since the mixers do not reliably
+ * provide them. This is meant to be done once, at load time.
+ * 
+ * @author pvg
+ */
+public final class SoundConverter {
+
+  private SoundConverter() {}
+
+  /**
+   * Load a sound from an input stream and convert it to the given format.
+   * This is a synchronous method; it will block until the data is loaded.
+   * 
+   * @param in the input stream containing the sound effect data
+   * @param target the format of the resulting sound, which must be 16 bit
+   *  signed PCM
+   * @return the converted sound
+   * @throws IOException if the data cannot be read
+   * @throws UnsupportedAudioFileException if the data is not in a known format
+   */
+  public static Sound load(InputStream in, AudioFormat target) 
+    throws IOException, UnsupportedAudioFileException {
+    assert target.getEncoding().equals(AudioFormat.Encoding.PCM_SIGNED);
+    assert target.getSampleSizeInBits() == 16;
+
+    // Java Sound needs mark/reset to sniff the file type
+    if (!in.markSupported()) in = new BufferedInputStream(in);
+    AudioInputStream source = AudioSystem.getAudioInputStream(in);
+    
+    // Decode to 16 bit signed little-endian PCM at the source's rate
+    AudioFormat sourceFormat = source.getFormat();
+    AudioFormat pcm16 = new AudioFormat(sourceFormat.getSampleRate(), 16,
+        sourceFormat.getChannels(), true, false);
+    AudioInputStream decoded = sourceFormat.matches(pcm16) 
+      ? source : AudioSystem.getAudioInputStream(pcm16, source);
+    ByteBuffer pcm = ByteBuffer.wrap(readFully(decoded))
+      .order(ByteOrder.LITTLE_ENDIAN);
+    decoded.close();
+    
+    ByteBuffer converted = convert(pcm, pcm16, target);
+    return new Sound(target, converted);
+  }
+
+  /**
+   * Convert 16 bit PCM samples from one rate and channel count to another.
+   * 
+   * @param pcm the source samples, ordered according to the source format
+   * @param from the format of the source samples
+   * @param to the target format
+   * @return a direct buffer holding the converted samples, ready to read
+   */
+  private static ByteBuffer convert(ByteBuffer pcm, AudioFormat from, 
+      AudioFormat to) {
+    int inChannels = from.getChannels();
+    int outChannels = to.getChannels();
+    int inFrames = pcm.remaining() / (2 * inChannels);
+    double step = from.getSampleRate() / to.getSampleRate();
+    int outFrames = inFrames == 0 ? 0 : (int) Math.floor((inFrames - 1) / step) + 1;
+
+    ByteBuffer out = ByteBuffer.allocateDirect(outFrames * outChannels * 2)
+      .order(to.isBigEndian() ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+    
+    for (int i = 0; i < outFrames; i++) {
+      double pos = i * step;
+      int frame = (int) pos;
+      float frac = (float) (pos - frame);
+      int next = Math.min(frame + 1, inFrames - 1);
+      for (int c = 0; c < outChannels; c++) {
+        float a = sample(pcm, frame, c, inChannels, outChannels);
+        float b = sample(pcm, next, c, inChannels, outChannels);
+        out.putShort((short) Math.round(a + (b - a) * frac));
+      }
+    }
+    
+    out.flip();
+    return out;
+  }
+
+  /**
+   * Get the value of an output channel for a source frame.
+   * A mono output mixes all source channels; otherwise output channels take
+   * the matching source channel, or the last one if there are fewer.
+   * 
+   * @param pcm source samples
+   * @param frame source frame index
+   * @param channel output channel
+   * @param inChannels number of source channels
+   * @param outChannels number of output channels
+   * @return sample value
+   */
+  private static float sample(ByteBuffer pcm, int frame, int channel, 
+      int inChannels, int outChannels) {
+    int base = frame * inChannels * 2;
+    if (outChannels == 1 && inChannels > 1) {
+      float sum = 0;
+      for (int c = 0; c < inChannels; c++) sum += pcm.getShort(base + c * 2);
+      return sum / inChannels;
+    }
+    return pcm.getShort(base + Math.min(channel, inChannels - 1) * 2);
+  }
+
+  /**
+   * Read the remainder of a stream
+   * @param in the stream
+   * @return its content
+   * @throws IOException
+   */
+  private static byte[] readFully(InputStream in) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] chunk = new byte[4096];
+    int n;
+    while ((n = in.read(chunk)) != -1) out.write(chunk, 0, n);
+    return out.toByteArray();
+  }
+}
@@ -0,0 +1,88 @@
+package edu.bsu.cs639.eeclone.audio;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * A filter that processes 16 bit signed PCM sound data in place.
+ * <p>
+ * Filters hold only their parameters, so one filter can be shared by any
+ * number of sounds playing at once. Anything a filter must remember between
+ * chunks is kept in a state array owned by the voice playing the sound,
+ * which is allocated once per voice and cleared at the start of each sound.
+ * Filters must not allocate while filtering.
+ * 
+ * @see FilterChain
+ * @author pvg
+ */
+public abstract class SoundFilter {
+
+  /**
+   * Get the number of state values this filter needs for a sound in the
+   * given format. 
+   * @param format playback format
+   * @return state size, in floats; zero by default
+   */
+  public int stateSize(AudioFormat format) {
+    return 0;
+  }
+
+  /**
+   * Get the amount of output this filter produces after its input has ended,
+   * such as the decay of an echo.
+   * @param format playback format
+   * @return tail size, in bytes; zero by default
+   */
+  public int tailSize(AudioFormat format) {
+    return 0;
+  }
+
+  /**
+   * Filter a chunk of sound data in place.
+   * 
+   * @param samples the buffer holding the data
+   * @param offset offset of the first byte of the chunk, on a frame boundary
+   * @param length length of the chunk, in bytes, which is a whole number
+   *  of frames
+   * @param format the format of the data
+   * @param state this filter's state, which is all zero at the start of a
+   *  sound
+   * @param stateOffset the index of this filter's first state value
+   * @param frame the index, from the start of the sound, of the chunk's
+   *  first frame
+   */
+  public abstract void filter(byte[] samples, int offset, int length,
+      AudioFormat format, float[] state, int stateOffset, long frame);
+
+  /**
+   * Read a 16 bit sample
+   * @param samples data buffer
+   * @param pos position of the sample
+   * @param bigEndian byte order of the data
+   * @return sample value
+   */
+  protected static int getSample(byte[] samples, int pos, boolean bigEndian) {
+    if (bigEndian) 
+      return (short) ((samples[pos] << 8) | (samples[pos + 1] & 0xff));
+    else 
+      return (short) ((samples[pos + 1] << 8) | (samples[pos] & 0xff));
+  }
+
+  /**
+   * Write a 16 bit sample, clipping it to range
+   * @param samples data buffer
+   * @param pos position of the sample
+   * @param value sample value
+   * @param bigEndian byte order of the data
+   */
+  protected static void setSample(byte[] samples, int pos, float value, 
+      boolean bigEndian) {
+    int v = Math.round(Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, value)));
+    if (bigEndian) {
+      samples[pos] = (byte) (v >> 8);
+      samples[pos + 1] = (byte) v;
+    } else {
+      samples[pos] = (byte) v;
+      samples[pos + 1] = (byte) (v >> 8);
+    }
+  }
+}
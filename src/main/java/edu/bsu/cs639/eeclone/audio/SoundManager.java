@@ -2,6 +2,8 @@ package edu.bsu.cs639.eeclone.audio;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 import javax.sound.sampled.AudioFormat;
 import javax.sound.sampled.AudioSystem;
@@ -10,12 +12,20 @@ import javax.sound.sampled.LineUnavailableException;
 import javax.sound.sampled.Mixer;
 import javax.sound.sampled.SourceDataLine;
 
+import edu.bsu.cs639.util.Histogram;
+import edu.bsu.cs639.util.StartupTimer;
+
 /**
  * Manages sound playback.
  *  The SoundManager is a
  * ThreadPool, with each thread playing back one sound at a time. This allows
  * the SoundManager to easily limit the number of simultaneous sounds being
  * played.
+ * <p>
+ * The size of each thread's line buffer and of the chunks written to it are
+ * set per manager; smaller values lower the delay between triggering a sound
+ * and hearing it, at the risk of underruns. The delay actually obtained is
+ * measured for every sound and collected in {@link #latency()}.
  * 
  * <p>
  * Based on the implementation by David Brackeen for
@@ -25,16 +35,68 @@ import javax.sound.sampled.SourceDataLine;
  */
 public class SoundManager extends edu.bsu.cs639.util.ThreadPool {
 
+  /** The default size of each line's buffer, in milliseconds */
+  public static final int DEFAULT_BUFFER_MILLIS = 100;
+
+  /** The longest filter state each voice can hold, in milliseconds of audio */
+  public static final int MAX_FILTER_STATE_MILLIS = 500;
+
+  /** 
+   * The default size of the chunks written to each line, in milliseconds.
+   * A write into a full line blocks for about this long, so it is kept a
+   * small part of the buffer.
+   */
+  public static final int DEFAULT_CHUNK_MILLIS = 10;
+
+  /** 
+   * The most audio written at once until a sound's first frame has been
+   * played, in milliseconds, so that its latency is measured to about this
+   */
+  private static final int PROBE_MILLIS = 2;
+
   /** The format used by all threads in this pool */
   private AudioFormat playbackFormat;
 
+  /** The size of each thread's line buffer, in bytes */
+  private int bufferSize;
+
+  /** The size of the chunks written to the lines, in bytes */
+  private int chunkSize;
+
+  /** The size of the writes made while a sound's latency is measured */
+  private int probeSize;
+
+  /** 
+   * The time between a call to play and the first frame of that sound 
+   * being played by the line: 0.5ms buckets up to 250ms.
+   */
+  private final Histogram latency = new Histogram(500000L, 500);
+
   private ThreadLocal<SourceDataLine> localLine;
 
   private ThreadLocal<byte[]> localBuffer;
 
+  /** Per-voice state for sound filters, allocated once per thread */
+  private ThreadLocal<float[]> localFilterState;
+
+  /** The number of floats in each voice's filter state */
+  private int filterStateSize;
+
   /** Lock object */
   private Object pausedLock = new Object();
 
+  /** The most idle sample players kept for reuse */
+  private static final int MAX_IDLE_PLAYERS = 32;
+
+  /** 
+   * Sample players that have finished and can be reused, so that playing a
+   * {@link Sound} does not allocate. Guarded by itself.
+   */
+  private final SamplePlayer[] idlePlayers = new SamplePlayer[MAX_IDLE_PLAYERS];
+
+  /** The number of valid entries in {@link #idlePlayers} */
+  private int idleCount;
+
   private boolean paused;
 
   /**
@@ -52,17 +114,57 @@ public class SoundManager extends edu.bsu.cs639.util.ThreadPool {
    * @param maxSimultaneousSounds
    */
   public SoundManager(AudioFormat playbackFormat, int maxSimultaneousSounds) {
+    this(playbackFormat, maxSimultaneousSounds, DEFAULT_BUFFER_MILLIS,
+        DEFAULT_CHUNK_MILLIS);
+  }
+
+  /**
+   * Creates a new SoundManager with the specified maximum number of
+   * simultaneous sounds and buffering.
+   * @param playbackFormat playback format 
+   * @param maxSimultaneousSounds
+   * @param bufferMillis the size of each line's buffer, in milliseconds
+   * @param chunkMillis the size of the chunks written to the lines, in
+   *  milliseconds; this is capped at the buffer size
+   */
+  public SoundManager(AudioFormat playbackFormat, int maxSimultaneousSounds,
+      int bufferMillis, int chunkMillis) {
     // Commented out original impl since Mandriva always says this is one.
     super(//Math.min(maxSimultaneousSounds,getMaxSimultaneousSounds(playbackFormat)));
-        maxSimultaneousSounds);
+        maxSimultaneousSounds, false);
+    assert bufferMillis > 0;
+    assert chunkMillis > 0;
     this.playbackFormat = playbackFormat;
+    this.bufferSize = bytesFor(playbackFormat, bufferMillis);
+    this.chunkSize = Math.min(bufferSize, bytesFor(playbackFormat, chunkMillis));
+    this.probeSize = Math.min(chunkSize, bytesFor(playbackFormat, PROBE_MILLIS));
     localLine = new ThreadLocal<SourceDataLine>();
     localBuffer = new ThreadLocal<byte[]>();
+    localFilterState = new ThreadLocal<float[]>();
+    filterStateSize = bytesFor(playbackFormat, MAX_FILTER_STATE_MILLIS) / 2;
 
-    // notify threads in pool it's ok to start
-    synchronized (this) {
-      notifyAll();
-    }
+    // the threads' lines depend on the fields above, so start them last
+    start();
+  }
+
+  /**
+   * Get the number of bytes, rounded to whole frames, that hold the given
+   * duration of audio.
+   * @param format audio format
+   * @param millis duration in milliseconds
+   * @return size in bytes, at least one frame
+   */
+  static int bytesFor(AudioFormat format, int millis) {
+    int frames = Math.max(1, Math.round(format.getSampleRate() * millis / 1000f));
+    return format.getFrameSize() * frames;
+  }
+
+  /**
+   * Get the trigger-to-sound latency measured for this manager's sounds.
+   * @return latency histogram
+   */
+  public Histogram latency() {
+    return latency;
   }
 
   /**
@@ -222,19 +324,58 @@ public class SoundManager extends edu.bsu.cs639.util.ThreadPool {
    * @param sound the sound to play
    * @param loop desired looping status
    */
-  public void play(Sound sound, /*SoundFilter filter,*/ boolean loop) {
-    assert sound!=null;
-    
-    InputStream is;
-    // If we are looping, set up a looping input stream.
-    // Otherwise, use a normal input stream.
-    if (loop) {
-      is = sound.asLoopingStream();
-    } else {
-      is = sound.asStream();
-    }
+  public void play(Sound sound, boolean loop) {
+    play(sound, null, loop);
+  }
 
-    play(is);
+  /**
+   * Plays a sound through a chain of filters, optionally looping.
+   * This method returns immediately.
+   * @param sound the sound to play
+   * @param filters the filters to apply, or null for none
+   * @param loop desired looping status
+   * @throws IllegalArgumentException if the filters need more state than
+   *  a voice holds
+   */
+  public void play(Sound sound, FilterChain filters, boolean loop) {
+    play(sound, filters, 1f, loop);
+  }
+
+  /**
+   * Plays a sound through a chain of filters at the given volume, optionally 
+   * looping. This method returns immediately.
+   * @param sound the sound to play
+   * @param filters the filters to apply, or null for none
+   * @param gain the factor by which the filtered samples are multiplied
+   * @param loop desired looping status
+   * @throws IllegalArgumentException if the filters need more state than
+   *  a voice holds
+   */
+  public void play(Sound sound, FilterChain filters, float gain, 
+      boolean loop) {
+    play(sound, filters, gain, loop, System.nanoTime());
+  }
+
+  /**
+   * Plays a sound whose play was requested earlier. 
+   * This method returns immediately.
+   * @param sound the sound to play
+   * @param filters the filters to apply, or null for none
+   * @param gain the factor by which the filtered samples are multiplied
+   * @param loop desired looping status
+   * @param triggered when the play was requested, from 
+   *  {@link System#nanoTime()}; latency is measured from this time
+   */
+  void play(Sound sound, FilterChain filters, float gain, boolean loop,
+      long triggered) {
+    assert sound!=null;
+    assert gain >= 0;
+    checkFilters(filters);
+    SoundPlayer player = obtainPlayer(sound, loop);
+    player.filters = filters;
+    player.gain = gain;
+    player.triggered = triggered;
+    runTask(player, System.currentTimeMillis()+50);
   }
 
   /**
@@ -242,31 +383,75 @@ public class SoundManager extends edu.bsu.cs639.util.ThreadPool {
    * This method returns immediately.
    * @param is an input stream
    */
-  public void play(InputStream is/*, SoundFilter filter*/) {
+  public void play(InputStream is) {
+    play(is, null);
+  }
+
+  /**
+   * Plays a sound from an InputStream through a chain of filters.
+   * This method returns immediately.
+   * @param is an input stream in the playback format, whose reads return
+   *  whole frames if filters are used
+   * @param filters the filters to apply, or null for none
+   * @throws IllegalArgumentException if the filters need more state than
+   *  a voice holds
+   */
+  public void play(InputStream is, FilterChain filters) {
     assert is!=null;
+    checkFilters(filters);
     //TODO: make the 50ms fudge a parameter of this object or the method
-    runTask(new SoundPlayer(is), System.currentTimeMillis()+50);
+    SoundPlayer player = new StreamPlayer(is);
+    player.filters = filters;
+    player.triggered = System.nanoTime();
+    runTask(player, System.currentTimeMillis()+50);
   }
 
   /**
-   * Signals that a PooledThread has started. Creates the Thread's line and
-   * buffer.
+   * Check that a filter chain fits in a voice's preallocated state.
+   * @param filters the filter chain, or null
    */
-  @Override
-  protected void threadStarted() {
-    // wait for the SoundManager constructor to finish
-    synchronized (this) {
-      try {
-        wait();
-      } catch (InterruptedException ex) {
+  private void checkFilters(FilterChain filters) {
+    if (filters != null && filters.stateSize(playbackFormat) > filterStateSize)
+      throw new IllegalArgumentException("Filter state exceeds " 
+          + MAX_FILTER_STATE_MILLIS + "ms");
+  }
+
+  /**
+   * Get a sample player for the given sound, reusing an idle one if possible.
+   * @param sound the sound to play
+   * @param loop desired looping status
+   * @return a sample player positioned at the start of the sound
+   */
+  private SamplePlayer obtainPlayer(Sound sound, boolean loop) {
+    SamplePlayer player = null;
+    synchronized (idlePlayers) {
+      if (idleCount > 0) {
+        player = idlePlayers[--idleCount];
+        idlePlayers[idleCount] = null;
       }
     }
+    if (player == null) player = new SamplePlayer();
+    player.reset(sound, loop);
+    return player;
+  }
 
-    // use a short, 100ms (1/10th sec) buffer for filters that
-    // change in real-time
-    int bufferSize = playbackFormat.getFrameSize()
-        * Math.round(playbackFormat.getSampleRate() / 10);
+  /**
+   * Return a finished sample player for reuse.
+   * Players that expired before running are simply left to the collector.
+   * @param player a player that is no longer running
+   */
+  private void releasePlayer(SamplePlayer player) {
+    synchronized (idlePlayers) {
+      if (idleCount < idlePlayers.length) idlePlayers[idleCount++] = player;
+    }
+  }
 
+  /**
+   * Signals that a PooledThread has started. Creates the Thread's line and
+   * buffer.
+   */
+  @Override
+  protected void threadStarted() {
     // create, open, and start the line
     SourceDataLine line;
     DataLine.Info lineInfo = new DataLine.Info(SourceDataLine.class,
@@ -281,13 +466,15 @@ public class SoundManager extends edu.bsu.cs639.util.ThreadPool {
     }
 
     line.start();
+    StartupTimer.mark("first audio line");
 
     // create the buffer
-    byte[] buffer = new byte[bufferSize];
+    byte[] buffer = new byte[chunkSize];
 
     // set this thread's locals
     localLine.set(line);
     localBuffer.set(buffer);
+    localFilterState.set(new float[filterStateSize]);
   }
 
   /**
@@ -306,17 +493,28 @@ public class SoundManager extends edu.bsu.cs639.util.ThreadPool {
   /**
    * The SoundPlayer class is a task for the PooledThreads to run. It receives
    * the threads's Line and byte buffer from the ThreadLocal variables and plays
-   * a sound from an InputStream.
+   * a sound from its source.
    * <p>
    * This class only works when called from a PooledThread.
    */
-  private class SoundPlayer implements Runnable {
+  private abstract class SoundPlayer implements Runnable {
 
-    private InputStream source;
+    /** The time, from {@link System#nanoTime()}, at which play was called */
+    protected long triggered;
 
-    public SoundPlayer(InputStream source) {
-      this.source = source;
-    }
+    /** The filters to apply, or null */
+    protected FilterChain filters;
+
+    /** The factor applied to the samples after the filters */
+    protected float gain = 1f;
+
+    /**
+     * Read the next chunk of audio data from this player's source.
+     * @param buffer the buffer to fill
+     * @return the number of bytes read, or -1 at the end of the source
+     * @throws IOException if the source cannot be read
+     */
+    protected abstract int read(byte[] buffer) throws IOException;
 
     public void run() {
       // get line and buffer from ThreadLocals
@@ -327,6 +525,22 @@ public class SoundManager extends edu.bsu.cs639.util.ThreadPool {
         return;
       }
 
+      // The line frame at which this sound starts, once it has been written,
+      // and whether its latency has yet to be recorded.
+      long firstFrame = -1;
+      boolean pending = true;
+      int frameSize = playbackFormat.getFrameSize();
+
+      // Set up the filters on this voice's state. Once the source ends, 
+      // silence is run through them until their tails have played out.
+      float[] filterState = localFilterState.get();
+      int tail = 0;
+      long frame = 0;
+      if (filters != null) {
+        Arrays.fill(filterState, 0, filters.stateSize(playbackFormat), 0f);
+        tail = filters.tailSize(playbackFormat);
+      }
+
       // copy data to the line
       try {
         int numBytesRead = 0;
@@ -342,15 +556,132 @@ public class SoundManager extends edu.bsu.cs639.util.ThreadPool {
             }
           }
           // copy data
-          numBytesRead = source.read(buffer, 0, buffer.length);
+          numBytesRead = read(buffer);
+          if (numBytesRead == -1 && tail > 0) {
+            numBytesRead = Math.min(tail, buffer.length);
+            Arrays.fill(buffer, 0, numBytesRead, (byte) 0);
+            tail -= numBytesRead;
+          }
           if (numBytesRead != -1) {
-            line.write(buffer, 0, numBytesRead);
+            if (filters != null) {
+              filters.filter(buffer, 0, numBytesRead, playbackFormat, 
+                  filterState, frame);
+              frame += numBytesRead / frameSize;
+            }
+            if (gain != 1f) {
+              GainFilter.apply(buffer, 0, numBytesRead, playbackFormat, gain);
+            }
+            if (firstFrame < 0) {
+              // Everything already in the line's buffer plays first
+              firstFrame = line.getLongFramePosition() + queuedFrames(line);
+            }
+            if (!pending) {
+              line.write(buffer, 0, numBytesRead);
+            } else {
+              // Write in small pieces, checking between them, so that the
+              // first frame is noticed soon after it plays rather than 
+              // after a write of a whole chunk into a full line returns.
+              // The position counts the frames played, so the first frame
+              // has been heard only once the position has moved past it.
+              for (int off = 0; off < numBytesRead; off += probeSize) {
+                line.write(buffer, off, Math.min(probeSize, 
+                    numBytesRead - off));
+                if (pending && line.getLongFramePosition() > firstFrame) {
+                  latency.record(System.nanoTime() - triggered);
+                  pending = false;
+                }
+              }
+            }
           }
         }
       } catch (IOException ex) {
         ex.printStackTrace();
       }
 
+      // Short sounds may end before their first frame is played; 
+      // predict when it will be from the frames still ahead of it.
+      if (pending && firstFrame >= 0) {
+        long framesAhead = Math.max(0, 
+            firstFrame + 1 - line.getLongFramePosition());
+        latency.record(System.nanoTime() - triggered
+            + (long) (framesAhead * 1e9 / playbackFormat.getFrameRate()));
+      }
+
+    }
+
+    /**
+     * Get the number of frames written to a line that it has yet to play
+     * @param line the line
+     * @return whole frames in the line's buffer
+     */
+    private long queuedFrames(SourceDataLine line) {
+      int queued = line.getBufferSize() - line.available();
+      return Math.max(0, queued) / playbackFormat.getFrameSize();
+    }
+  }
+
+  /**
+   * Plays a sound from an InputStream.
+   */
+  private final class StreamPlayer extends SoundPlayer {
+
+    private InputStream source;
+
+    public StreamPlayer(InputStream source) {
+      this.source = source;
+    }
+
+    @Override
+    protected int read(byte[] buffer) throws IOException {
+      return source.read(buffer, 0, buffer.length);
+    }
+  }
+
+  /**
+   * Plays a {@link Sound} directly from its shared sample buffer. The only
+   * per-play state is the position of a view on that buffer, and players are
+   * recycled through {@link #releasePlayer(SamplePlayer)}.
+   */
+  private final class SamplePlayer extends SoundPlayer {
+
+    /** The sound currently assigned to this player */
+    private Sound sound;
+
+    /** A view of the sound's samples; its position is the playback cursor */
+    private ByteBuffer cursor;
+
+    private boolean loop;
+
+    /**
+     * Assign a sound to this player and rewind it.
+     * @param sound the sound to play
+     * @param loop desired looping status
+     */
+    void reset(Sound sound, boolean loop) {
+      // Views are kept across plays of the same sound
+      if (this.sound != sound) {
+        this.sound = sound;
+        cursor = sound.samples();
+      }
+      cursor.rewind();
+      this.loop = loop;
+    }
+
+    @Override
+    protected int read(byte[] buffer) {
+      if (!cursor.hasRemaining()) {
+        if (!loop || cursor.limit() == 0) return -1;
+        cursor.rewind();
+      }
+      int n = Math.min(buffer.length, cursor.remaining());
+      cursor.get(buffer, 0, n);
+      return n;
+    }
+
+    @Override
+    public void run() {
+      super.run();
+      releasePlayer(this);
     }
   }
 
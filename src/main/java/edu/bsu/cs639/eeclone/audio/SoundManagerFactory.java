@@ -1,13 +1,31 @@
 package edu.bsu.cs639.eeclone.audio;
 
+import java.io.PrintStream;
 import java.util.HashMap;
 import java.util.Map;
 
 import javax.sound.sampled.AudioFormat;
 
+/**
+ * Provides the sound managers that play sound effects, one per playback
+ * format. Sounds loaded through the resource loader are all converted to
+ * {@link #PLAYBACK_FORMAT}, so normally only one manager is ever created.
+ * Managers may be requested from any thread; sound effects in the game are
+ * played through the {@link SoundCommandQueue}, whose thread creates the
+ * manager on first use.
+ * 
+ * @author pvg
+ */
 public final class SoundManagerFactory {
 
   private static final int DEFAULT_MAX_SIMULTANEOUS = 8;
+
+  /** 
+   * The format to which all sound effects are converted when loaded:
+   * 44.1kHz, 16 bit signed, stereo, little-endian.
+   */
+  public static final AudioFormat PLAYBACK_FORMAT = 
+    new AudioFormat(44100f, 16, 2, true, false);
   
   private static final SoundManagerFactory SINGLETON = new SoundManagerFactory();
   
@@ -16,14 +34,41 @@ public final class SoundManagerFactory {
   /** Max simultaneous sounds */
   private int maxSimultaneous = DEFAULT_MAX_SIMULTANEOUS;
   
+  /** 
+   * Line buffer size for new managers, in milliseconds.
+   * Can be tuned per machine with the eeclone.audio.bufferMillis property.
+   */
+  private int bufferMillis = Integer.getInteger("eeclone.audio.bufferMillis",
+      SoundManager.DEFAULT_BUFFER_MILLIS);
+  
+  /** 
+   * Chunk size for new managers, in milliseconds.
+   * Can be tuned per machine with the eeclone.audio.chunkMillis property.
+   */
+  private int chunkMillis = Integer.getInteger("eeclone.audio.chunkMillis",
+      SoundManager.DEFAULT_CHUNK_MILLIS);
+  
   private Map<AudioFormat,SoundManager> map
     = new HashMap<AudioFormat, SoundManager>();
   
-  public SoundManager get(AudioFormat format) {
+  /**
+   * Get the sound manager for the shared playback format.
+   * @return sound manager
+   */
+  public SoundManager get() {
+    return get(PLAYBACK_FORMAT);
+  }
+
+  /**
+   * Get the sound manager for a given format, creating it if needed.
+   * @param format the playback format
+   * @return sound manager
+   */
+  public synchronized SoundManager get(AudioFormat format) {
     assert format!=null;
     SoundManager sm = map.get(format);
     if (sm==null) {
-      sm = new SoundManager(format, maxSimultaneous);
+      sm = new SoundManager(format, maxSimultaneous, bufferMillis, chunkMillis);
       map.put(format,sm);
     }
     return sm;
@@ -38,4 +83,25 @@ public final class SoundManagerFactory {
     this.maxSimultaneous = max;
   }
   
+  /**
+   * Change the buffering of sound managers generated by this factory
+   * @param bufferMillis line buffer size, in milliseconds
+   * @param chunkMillis size of the chunks written to lines, in milliseconds
+   */
+  public void setBuffering(int bufferMillis, int chunkMillis) {
+    this.bufferMillis = bufferMillis;
+    this.chunkMillis = chunkMillis;
+  }
+  
+  /**
+   * Print the trigger-to-sound latency of every manager generated so far
+   * @param out where to print
+   */
+  public synchronized void printLatency(PrintStream out) {
+    for (Map.Entry<AudioFormat,SoundManager> e : map.entrySet()) {
+      out.println("Sound latency for " + e.getKey() + ":");
+      out.print(e.getValue().latency());
+    }
+  }
+  
 }
@@ -10,9 +10,6 @@ import java.awt.geom.Point2D;
 
 import edu.bsu.cs639.eeclone.Chain;
 import edu.bsu.cs639.eeclone.Constants;
-import edu.bsu.cs639.eeclone.ResourceLoader;
-import edu.bsu.cs639.eeclone.audio.Sound;
-import edu.bsu.cs639.eeclone.audio.SoundManagerFactory;
 import edu.bsu.cs639.util.FloatDimension;
 
 /**
@@ -41,8 +38,6 @@ public class ExplosionSprite implements Sprite.Explosion {
   /** The chain of which this explosion is a part */
   private final Chain chain;
   
-  private static final Sound EXPLOSION_SOUND = ResourceLoader.instance().getSound("explosion");
-  
   /**
    * @param x center of the explosion
    * @param y center of the explosion
@@ -55,8 +50,6 @@ public class ExplosionSprite implements Sprite.Explosion {
     this.y=y;
     this.chain = chain;
     chain.add(this);
-    //SoundPlayer.instance().play(ResourceLoader.instance().getSound("explosion"));
-    SoundManagerFactory.instance().get(EXPLOSION_SOUND.format()).play(EXPLOSION_SOUND);
   }
   
   public Object accept(Visitor v, Object arg) {
@@ -8,8 +8,10 @@ import java.awt.geom.Point2D;
 
 import edu.bsu.cs639.eeclone.Chain;
 import edu.bsu.cs639.eeclone.Constants;
+import edu.bsu.cs639.eeclone.EventBus;
 import edu.bsu.cs639.eeclone.Game;
 import edu.bsu.cs639.eeclone.SpriteManager;
+import edu.bsu.cs639.eeclone.TickScheduler;
 import edu.bsu.cs639.eeclone.anim.Animation;
 import edu.bsu.cs639.eeclone.anim.SpinningCircleAnimation;
 import edu.bsu.cs639.util.FloatDimension;
@@ -157,7 +159,15 @@ public final class PlayerSprite implements Sprite.Player {
     
     private static final int TICKS_BEFORE_RESPAWN = Constants.FPS / 2;
     
-    private int ticks;
+    /** Set once the respawn has been scheduled */
+    private boolean respawnScheduled;
+    
+    /** Respawns */
+    private final Runnable respawn = new Runnable() {
+      public void run() {
+        respawnOrEndGame();
+      }
+    };
     
     public void draw(Graphics2D g) {
       // The explosion is automatically drawn by the sprite manager.
@@ -170,7 +180,7 @@ public final class PlayerSprite implements Sprite.Player {
 
     public void uninstall() {
       explosion = null;
-      ticks = 0;
+      respawnScheduled = false;
     }
     
     public void explode() { //ignored
@@ -187,12 +197,9 @@ public final class PlayerSprite implements Sprite.Player {
       
       // Note that the explosion sprite itself is managed by the sprite
       // manager, so we should not call its update function here.
-      if (explosion.isDone()) {
-        ticks ++;
-        if (ticks >= TICKS_BEFORE_RESPAWN) {
-          if (lives>0) setState(SPAWNING_STATE);
-          else Game.instance().gameOver();
-        }
+      if (explosion.isDone() && !respawnScheduled) {
+        respawnScheduled = true;
+        scheduleInState(TICKS_BEFORE_RESPAWN, respawn);
       }
     }
   };
@@ -201,8 +208,12 @@ public final class PlayerSprite implements Sprite.Player {
 
     private static final int MIN_TICKS_BEFORE_RESPAWN = (int)(Constants.FPS * 1.5);
     
-    /** The number of ticks since the death animation stopped */ 
-    private int ticks = 0;
+    /** Respawns */
+    private final Runnable respawn = new Runnable() {
+      public void run() {
+        respawnOrEndGame();
+      }
+    };
     
     public void draw(Graphics2D g) {
       // TODO: replace with death animation
@@ -211,8 +222,8 @@ public final class PlayerSprite implements Sprite.Player {
     }
 
     public void install() {
-      // Reset ticks
-      ticks = 0;
+      // Respawn after time elapses
+      scheduleInState(MIN_TICKS_BEFORE_RESPAWN + 1, respawn);
     }
 
     public void uninstall() {
@@ -223,15 +234,6 @@ public final class PlayerSprite implements Sprite.Player {
 
     public void update() {
       // TODO: update a death animation
-      
-      // Respawn after time elapses
-      ticks++;
-      if (ticks > MIN_TICKS_BEFORE_RESPAWN) {
-        if (lives > 0)
-          setState(SPAWNING_STATE);
-        else 
-          Game.instance().gameOver();
-      }
     }
     
   };
@@ -240,7 +242,12 @@ public final class PlayerSprite implements Sprite.Player {
     // The number of ticks of the spawn animation
     private static final int SPAWN_DURATION = Constants.FPS;
     
-    private int ticks = 0;
+    /** Ends the spawn */
+    private final Runnable spawned = new Runnable() {
+      public void run() {
+        setState(MOVING_STATE);
+      }
+    };
     
     public void draw(Graphics2D g) {
       // TODO: replace with spawning animation
@@ -251,10 +258,10 @@ public final class PlayerSprite implements Sprite.Player {
     public void install() {
       x = STARTING_LOCATION.x;
       y = STARTING_LOCATION.y;
+      scheduleInState(SPAWN_DURATION + 1, spawned);
     }
 
     public void uninstall() {
-      ticks = 0;
     }
     
     public void explode() { //ignored
@@ -264,16 +271,18 @@ public final class PlayerSprite implements Sprite.Player {
       
       // Allow movement while spawning
       updateLocation();
-      
-      ticks++;
-      if (ticks > SPAWN_DURATION)
-        setState(MOVING_STATE);
     }
   };
   
   /** The current state of the sprite */
   private State state;
 
+  /** 
+   * Counts state changes, so that a callback scheduled in one state can tell
+   * that the state it was scheduled in has since been left
+   */
+  private int generation;
+
   private float x = STARTING_LOCATION.x, y = STARTING_LOCATION.y,
       diameter = NORMAL_DIAMETER;
   
@@ -319,9 +328,27 @@ public final class PlayerSprite implements Sprite.Player {
   private void setState(State state) {
     if (this.state != null)
       this.state.uninstall();
+    generation++;
     this.state = state;
     this.state.install();
   }
+
+  /**
+   * Run an action after some ticks, unless the state has changed by then.
+   * The state changes with every life and every new game, so an action
+   * scheduled for an earlier one is dropped.
+   * 
+   * @param delay ticks from now
+   * @param action the action
+   */
+  private void scheduleInState(int delay, final Runnable action) {
+    final int scheduledIn = generation;
+    TickScheduler.instance().schedule(delay, new Runnable() {
+      public void run() {
+        if (generation == scheduledIn) action.run();
+      }
+    });
+  }
   
   /**
    * ISsue the explode command.
@@ -380,6 +407,13 @@ public final class PlayerSprite implements Sprite.Player {
    */
   @Override
   public int livesRemaining() { return lives; }
+
+  @Override
+  public void reset() {
+    lives = Constants.STARTING_LIVES;
+    direction = MovementDirection.STOP;
+    setState(SPAWNING_STATE);
+  }
   
   /**
    * Tell the player to move in the designated direction.
@@ -417,12 +451,22 @@ public final class PlayerSprite implements Sprite.Player {
   @Override
   public boolean isMarkedForRemoval() { return markedForRemoval; }
   
+  /**
+   * Respawn the player if there are lives left, or end the game.
+   */
+  private void respawnOrEndGame() {
+    if (lives > 0)
+      setState(SPAWNING_STATE);
+    else 
+      Game.instance().gameOver();
+  }
+  
   /** 
    * Deduct a life from the player.
    * This should be the only playce lives are deducted
    */
   private final void deductLife() {
     lives--;
-    Game.instance().score().playerLostLife();//TODO: should be observer
+    EventBus.instance().publish(EventBus.LIFE_LOST, lives);
   }
 }
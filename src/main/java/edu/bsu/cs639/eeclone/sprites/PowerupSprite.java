@@ -3,8 +3,7 @@ package edu.bsu.cs639.eeclone.sprites;
 import java.awt.Graphics2D;
 
 import edu.bsu.cs639.eeclone.Constants;
-import edu.bsu.cs639.eeclone.Game;
-import edu.bsu.cs639.eeclone.SpriteManager;
+import edu.bsu.cs639.eeclone.EventBus;
 
 /**
  * A general powerup sprite.
@@ -19,8 +18,7 @@ public final class PowerupSprite extends LinearMotionSprite implements Sprite.Po
   }
   
   public void collect() {
-    int points = Game.instance().score().add(this);
-    SpriteManager.instance().add(new TextSprite(""+points, x + w/2, y+h/2));
+    EventBus.instance().publish(EventBus.POWERUP_COLLECTED, 0, x + w/2, y+h/2);
     
     // remove myself
     markForRemoval();
@@ -54,6 +54,8 @@ public interface Sprite {
       public void explode();
       public void move(PlayerSprite.MovementDirection d);
       public int livesRemaining();
+      /** Restore the starting lives and spawn again, for a new game */
+      public void reset();
   }
   
   /**
@@ -6,6 +6,7 @@ import java.awt.font.TextLayout;
 import java.awt.geom.Rectangle2D;
 
 import edu.bsu.cs639.eeclone.Constants;
+import edu.bsu.cs639.eeclone.TickScheduler;
 
 /**
  * A noninteractive sprite that shows some text. 
@@ -20,7 +21,12 @@ public class TextSprite extends AbstractSprite implements Sprite.Noninteractive{
   
   private static final int LIFECYCLE_UPDATES = edu.bsu.cs639.eeclone.Constants.FPS * 2;
   
-  private int ticks = 0;
+  /** Removes this sprite at the end of its life */
+  private final Runnable expire = new Runnable() {
+    public void run() {
+      markForRemoval();
+    }
+  };
   
   /**
    * Create a text sprite centered at the given point
@@ -32,6 +38,7 @@ public class TextSprite extends AbstractSprite implements Sprite.Noninteractive{
     x = cx;
     y = cy;
     this.text=text;
+    TickScheduler.instance().schedule(LIFECYCLE_UPDATES + 2, expire);
   }
   
   public Object accept(Visitor v, Object arg) {
@@ -50,7 +57,7 @@ public class TextSprite extends AbstractSprite implements Sprite.Noninteractive{
   }
 
   public void update() {
-    if (ticks++ > LIFECYCLE_UPDATES) markForRemoval();
+    // Removal is scheduled at construction
   }
 
 
@@ -1,52 +1,148 @@
 package edu.bsu.cs639.util;
 
-
-
 /**
  * A linked list queue that supports expiration of elements.
- * 
+ * <p>
+ * This queue is thread-safe; every operation holds its lock only for a
+ * constant amount of work, except for expiry, which is proportional to the
+ * number of elements actually expired.
+ * Expiring elements are also filed in a hashed timing wheel with one slot
+ * per millisecond, so expired elements are found by sweeping the slots that
+ * have passed since the last sweep instead of being inspected one by one at
+ * the head of the queue. The clock is read once per sweep.
+ * Nodes are recycled, so a queue in steady state does not allocate.
+ * The time each element waits before it is taken is kept in a histogram.
+ * <p>
+ * Besides backing a {@link ThreadPool}, this can be used as a general
+ * deferred-work queue: add work with a deadline and {@link #get()} it when
+ * convenient; work whose deadline has passed is silently dropped.
+ *
  * @author pvg
  * @param <T> the type of element contained in this queue
  */
-public final class ExpiringQueue<T>{ 
+public final class ExpiringQueue<T>{
   // This could implement List<T>, but that requires implementing
   // a bunch of silly methods that I don't feel like implementing now.
-  
+
+  /** Sentinel value for nonexpiring elements */
+  public static final long NON_EXPIRING = -1;
+
+  /** The number of slots in the timing wheel; a power of two */
+  private static final int WHEEL_SIZE = 1024;
+
+  private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+
+  /** The most nodes kept for reuse */
+  private static final int MAX_POOLED_NODES = 256;
+
+  /** Guards all of the state below */
+  private final Object lock = new Object();
+
   /** head of the queue */
-  private Node head;
-  
+  private Node<T> head;
+
   /** tail of the queue */
-  private Node tail;
+  private Node<T> tail;
+
+  /**
+   * The timing wheel. Slot <code>t & WHEEL_MASK</code> holds the elements
+   * that expire in millisecond t, or in a later turn of the wheel.
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private final Node<T>[] wheel = new Node[WHEEL_SIZE];
+
+  /** Every millisecond up to and including this has been swept */
+  private long swept = System.currentTimeMillis() - 1;
+
+  /** Recycled nodes, linked through {@link Node#next} */
+  private Node<T> pool;
+
+  private int pooled;
+
+  private int size;
+
+  private long expiredCount;
+
+  /** Time from add to get for elements taken: 0.1ms buckets */
+  private final Histogram waitTime = new Histogram(100000L, 1000);
 
   public ExpiringQueue() {}
-  
+
   /**
    * Add a non-expiring element to the queue.
    * @param data
    */
   public void add(T data) {
-    add(data, Node.NON_EXPIRING);
+    add(data, NON_EXPIRING);
   }
-  
+
   /**
    * Add an element to the queue
-   * @param data 
-   * @param expiry expiration time, in milliseconds 
+   * @param data
+   * @param expiry expiration time, in milliseconds, or {@link #NON_EXPIRING}.
+   *  The element expires once the clock has passed this time.
    */
   public void add(T data, long expiry) {
-    if (head==null) head = tail = new Node(data,expiry);
-    else {
-      tail.next = new Node(data,expiry);
-      tail = tail.next;
+    assert expiry >= NON_EXPIRING;
+    synchronized (lock) {
+      if (expiry != NON_EXPIRING && expiry <= swept) {
+        // Already past: it would be dropped by the next sweep anyway
+        expiredCount++;
+        return;
+      }
+
+      Node<T> n = obtain(data, expiry);
+      if (head==null) head = tail = n;
+      else {
+        tail.next = n;
+        n.prev = tail;
+        tail = n;
+      }
+      if (expiry != NON_EXPIRING) {
+        int slot = (int) (expiry & WHEEL_MASK);
+        n.wheelNext = wheel[slot];
+        if (wheel[slot] != null) wheel[slot].wheelPrev = n;
+        wheel[slot] = n;
+      }
+      size++;
     }
   }
 
   /**
-   * Check if the queue is empty
+   * Check if the queue is empty.
+   * Note that this may include expired elements that have not yet been swept.
    * @return true if empty
    */
-  public boolean isEmpty() { return head==null; }
-  
+  public boolean isEmpty() {
+    synchronized (lock) { return head==null; }
+  }
+
+  /**
+   * Get the number of elements in the queue, which may include expired
+   * elements that have not yet been swept.
+   * @return size
+   */
+  public int size() {
+    synchronized (lock) { return size; }
+  }
+
+  /**
+   * Get the number of elements that have expired since this queue was
+   * created.
+   * @return expired count
+   */
+  public long expiredCount() {
+    synchronized (lock) { return expiredCount; }
+  }
+
+  /**
+   * Get the time elements spent in the queue before they were taken.
+   * @return wait time histogram
+   */
+  public Histogram waitTime() {
+    return waitTime;
+  }
+
   /**
    * Remove an element from the queue.
    * Expired elements will not be returned.
@@ -54,63 +150,156 @@ public final class ExpiringQueue<T>{
    * @return the next non-expired element or null if the queue is empty
    */
   public T get() {
-    while (head!=null) {
-      // Check if the head should expire
-      if (head.expiry!=Node.NON_EXPIRING
-          && head.expiry < System.currentTimeMillis()) {
-        // Expire the head
-        head = head.next;
-        if (isEmpty()) {
-          tail=null;
-        }
-      }
-      else {
-        // return the head and update the list
-        T result = head.data;
-        head = head.next;
-        if (isEmpty()) tail=null;
-        return result;
-      }
+    long now = System.currentTimeMillis();
+    long added;
+    T result;
+    synchronized (lock) {
+      sweep(now);
+      if (head==null) return null;
+
+      Node<T> n = head;
+      result = n.data;
+      added = n.added;
+      unlink(n);
+      recycle(n);
     }
-    assert head==null;
-    assert tail==null;
-    return null;
+    waitTime.record(System.nanoTime() - added);
+    return result;
   }
-  
+
+  /**
+   * Remove all expired elements from the queue.
+   * @return the number of elements removed
+   */
+  public int expire() {
+    long now = System.currentTimeMillis();
+    synchronized (lock) {
+      return sweep(now);
+    }
+  }
+
   /**
    * Clear this queue.
    */
   public void clear() {
-    head = tail = null;
+    synchronized (lock) {
+      while (head != null) {
+        Node<T> n = head;
+        unlink(n);
+        recycle(n);
+      }
+    }
   }
-  
+
+  /**
+   * Drop every element that expired before the given time, by visiting the
+   * wheel slots for each millisecond since the last sweep. Elements in those
+   * slots that belong to a later turn of the wheel are left in place.
+   * Must hold the lock.
+   * @param now the current time
+   * @return the number of elements dropped
+   */
+  private int sweep(long now) {
+    long last = now - 1;
+    if (last <= swept) return 0;
+
+    // After a full turn, every slot has been visited once.
+    long from = Math.max(swept + 1, last - WHEEL_MASK);
+    int dropped = 0;
+    for (long t = from; t <= last; t++) {
+      Node<T> n = wheel[(int) (t & WHEEL_MASK)];
+      while (n != null) {
+        Node<T> next = n.wheelNext;
+        if (n.expiry < now) {
+          unlink(n);
+          recycle(n);
+          dropped++;
+        }
+        n = next;
+      }
+    }
+    swept = last;
+    expiredCount += dropped;
+    return dropped;
+  }
+
+  /**
+   * Remove a node from the queue and from the wheel. Must hold the lock.
+   * @param n the node
+   */
+  private void unlink(Node<T> n) {
+    if (n.prev == null) head = n.next; else n.prev.next = n.next;
+    if (n.next == null) tail = n.prev; else n.next.prev = n.prev;
+
+    if (n.expiry != NON_EXPIRING) {
+      int slot = (int) (n.expiry & WHEEL_MASK);
+      if (n.wheelPrev == null) wheel[slot] = n.wheelNext;
+      else n.wheelPrev.wheelNext = n.wheelNext;
+      if (n.wheelNext != null) n.wheelNext.wheelPrev = n.wheelPrev;
+    }
+    size--;
+  }
+
+  /**
+   * Get a node, from the pool if possible. Must hold the lock.
+   * @param data node data
+   * @param expiry node expiry
+   * @return a node
+   */
+  private Node<T> obtain(T data, long expiry) {
+    Node<T> n = pool;
+    if (n == null) n = new Node<T>();
+    else {
+      pool = n.next;
+      pooled--;
+    }
+    n.data = data;
+    n.expiry = expiry;
+    n.added = System.nanoTime();
+    n.next = n.prev = n.wheelNext = n.wheelPrev = null;
+    return n;
+  }
+
+  /**
+   * Return a node to the pool. Must hold the lock.
+   * @param n a node no longer in the queue
+   */
+  private void recycle(Node<T> n) {
+    n.data = null;
+    n.prev = n.wheelNext = n.wheelPrev = null;
+    if (pooled < MAX_POOLED_NODES) {
+      n.next = pool;
+      pool = n;
+      pooled++;
+    } else {
+      n.next = null;
+    }
+  }
+
   /**
    * Linked list node type.
-   * 
+   * Each node is in the queue's list and, if it expires, in a wheel slot.
+   *
    * @author pvg
    */
-  private final class Node {
-    // Implementation note: these could be pooled
-    
-    /** Sentinel value for nonexpiring nodes */
-    private static final int NON_EXPIRING = -1;
-    
+  private static final class Node<T> {
+
     /**
      * The time, in millis, at which this node expires.
      * May also be {@link #NON_EXPIRING}.
      */
     private long expiry;
-    
+
+    /** When this node was added, from {@link System#nanoTime()} */
+    private long added;
+
     /** The data element of this node */
     private T data;
-    
-    /** A link to the next element in the queue */
-    private Node next;
-    
-    public Node(T data, long expiry) {
-      assert expiry >= -1;
-      this.data=data;
-      this.expiry = expiry;
-    }
+
+    /** Links to the neighbouring elements in the queue */
+    private Node<T> next, prev;
+
+    /** Links to the neighbouring elements in this node's wheel slot */
+    private Node<T> wheelNext, wheelPrev;
   }
 }
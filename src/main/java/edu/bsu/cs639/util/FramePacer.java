@@ -0,0 +1,164 @@
+package edu.bsu.cs639.util;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Waits until frame deadlines with sub-millisecond precision.
+ * <p>
+ * In {@link Mode#HYBRID} mode the thread parks until shortly before the
+ * deadline and then yields until it is reached. How far before is the spin
+ * threshold: the time by which parking tends to overshoot on this machine,
+ * which is measured by {@link #calibrate()}, or else the first time the
+ * pacer waits. In {@link Mode#SLEEP}
+ * mode the thread only parks, which keeps the CPU idle between frames at
+ * the cost of the scheduler's jitter; it suits battery-powered machines.
+ * <p>
+ * How late each wait ends is kept in a histogram.
+ *
+ * @author pvg
+ */
+public final class FramePacer {
+
+  /**
+   * How a pacer waits.
+   *
+   * @author pvg
+   */
+  public enum Mode {
+    /** Park until the spin threshold, then yield until the deadline */
+    HYBRID,
+    /** Park until the deadline */
+    SLEEP
+  }
+
+  /** The number of parks timed to calibrate the spin threshold */
+  private static final int CALIBRATION_SAMPLES = 20;
+
+  /** The length of each calibration park, in nanoseconds */
+  private static final long CALIBRATION_PARK = 1000000L;
+
+  /** Added to the measured overshoot, in nanoseconds */
+  private static final long THRESHOLD_MARGIN = 50000L;
+
+  /** Bounds on the spin threshold, in nanoseconds */
+  private static final long MIN_THRESHOLD = 20000L;
+  private static final long MAX_THRESHOLD = 3000000L;
+
+  private final Mode mode;
+
+  /** The spin threshold in nanoseconds; negative until calibrated */
+  private long spinThreshold = -1;
+
+  /** How late waits end, in 50 microsecond buckets */
+  private final Histogram lateness = new Histogram(50000L, 200);
+
+  /**
+   * Create a pacer
+   * @param mode how to wait
+   */
+  public FramePacer(Mode mode) {
+    assert mode != null;
+    this.mode = mode;
+  }
+
+  /**
+   * Create a pacer in the mode named by the eeclone.pacing property,
+   * "hybrid" or "sleep"; hybrid by default, or if the mode is unknown.
+   * @return the pacer
+   */
+  public static FramePacer fromProperties() {
+    String name = System.getProperty("eeclone.pacing", "hybrid");
+    Mode mode;
+    try {
+      mode = Mode.valueOf(name.trim().toUpperCase(Locale.ROOT));
+    } catch (IllegalArgumentException e) {
+      System.err.println("Unknown pacing mode \"" + name + "\"; using hybrid");
+      mode = Mode.HYBRID;
+    }
+    return new FramePacer(mode);
+  }
+
+  /**
+   * Get the mode of this pacer
+   * @return mode
+   */
+  public Mode mode() {
+    return mode;
+  }
+
+  /**
+   * Wait until a deadline. If this thread is interrupted, the interrupt is
+   * cleared and the wait goes on.
+   * @param deadline the time to wait for, from {@link System#nanoTime()}
+   * @return how late the wait ended, in nanoseconds; 0 or more
+   */
+  public long sleepUntil(long deadline) {
+    long threshold = mode == Mode.HYBRID ? spinThreshold() : 0;
+    long remaining;
+    while ((remaining = deadline - System.nanoTime()) > threshold) {
+      LockSupport.parkNanos(remaining - threshold);
+      Thread.interrupted();
+    }
+    while (deadline - System.nanoTime() > 0) {
+      Thread.yield();
+    }
+    long late = System.nanoTime() - deadline;
+    lateness.record(late);
+    return late;
+  }
+
+  /**
+   * Measure the spin threshold, if that has not been done. This takes some
+   * 20 ms, so it is best called before the first frame rather than left to
+   * the first wait.
+   */
+  public void calibrate() {
+    if (mode == Mode.HYBRID) spinThreshold();
+  }
+
+  /**
+   * Get the spin threshold, calibrating it if that has not been done
+   * @return nanoseconds before a deadline at which parking stops
+   */
+  public long spinThreshold() {
+    if (spinThreshold < 0) spinThreshold = measureThreshold();
+    return spinThreshold;
+  }
+
+  /**
+   * Measure how much parking overshoots.
+   * @return the spin threshold, in nanoseconds
+   */
+  private static long measureThreshold() {
+    long[] overshoot = new long[CALIBRATION_SAMPLES];
+    for (int i = 0; i < overshoot.length; i++) {
+      long start = System.nanoTime();
+      LockSupport.parkNanos(CALIBRATION_PARK);
+      overshoot[i] = System.nanoTime() - start - CALIBRATION_PARK;
+    }
+    Arrays.sort(overshoot);
+    // Most waits should end by spinning, so cover all but the worst tenth
+    long typical = overshoot[overshoot.length * 9 / 10];
+    return Math.max(MIN_THRESHOLD,
+        Math.min(MAX_THRESHOLD, typical + THRESHOLD_MARGIN));
+  }
+
+  /**
+   * Get how late waits have ended
+   * @return lateness histogram
+   */
+  public Histogram lateness() {
+    return lateness;
+  }
+
+  @Override
+  public String toString() {
+    String s = mode == Mode.HYBRID
+      ? String.format("hybrid pacing, spin threshold %.3f ms",
+          spinThreshold() / 1e6)
+      : "sleep pacing";
+    return s + "; lateness " + lateness;
+  }
+}
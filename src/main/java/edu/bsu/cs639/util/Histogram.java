@@ -0,0 +1,107 @@
+package edu.bsu.cs639.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed-width histogram of durations.
+ * Values are recorded in nanoseconds and counted in buckets of a fixed
+ * width; anything beyond the last bucket is counted as overflow.
+ * Recording is thread-safe and does not allocate.
+ * 
+ * @author pvg
+ */
+public final class Histogram {
+
+  /** The width of each bucket, in nanoseconds */
+  private final long bucketWidth;
+
+  /** Bucket counts. The last bucket is the overflow bucket. */
+  private final AtomicLongArray counts;
+
+  /**
+   * Create a histogram.
+   * @param bucketWidth the width of each bucket, in nanoseconds
+   * @param buckets the number of buckets, not counting overflow
+   */
+  public Histogram(long bucketWidth, int buckets) {
+    assert bucketWidth > 0;
+    assert buckets > 0;
+    this.bucketWidth = bucketWidth;
+    this.counts = new AtomicLongArray(buckets + 1);
+  }
+
+  /**
+   * Record a value.
+   * @param nanos the value, in nanoseconds; negative values count as zero
+   */
+  public void record(long nanos) {
+    int bucket = (int) Math.min(Math.max(nanos, 0) / bucketWidth, 
+        counts.length() - 1);
+    counts.incrementAndGet(bucket);
+  }
+
+  /**
+   * Get the number of values recorded.
+   * @return count
+   */
+  public long count() {
+    long total = 0;
+    for (int i = 0; i < counts.length(); i++) total += counts.get(i);
+    return total;
+  }
+
+  /**
+   * Get an upper bound for the given percentile.
+   * @param p the percentile, between 0 and 100
+   * @return the upper edge of the bucket containing the percentile, in
+   *  nanoseconds, or {@link Long#MAX_VALUE} if it is in the overflow bucket
+   */
+  public long percentile(double p) {
+    long total = count();
+    long threshold = (long) Math.ceil(total * p / 100.0);
+    long seen = 0;
+    for (int i = 0; i < counts.length() - 1; i++) {
+      seen += counts.get(i);
+      if (seen >= threshold) return (i + 1) * bucketWidth;
+    }
+    return Long.MAX_VALUE;
+  }
+
+  /**
+   * Clear all recorded values.
+   */
+  public void reset() {
+    for (int i = 0; i < counts.length(); i++) counts.set(i, 0);
+  }
+
+  /**
+   * Get a textual rendering of this histogram, in milliseconds,
+   * listing only nonempty buckets.
+   * @return rendering of the histogram
+   */
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    sb.append("n=").append(count());
+    sb.append(" p50<=").append(millis(percentile(50)));
+    sb.append(" p99<=").append(millis(percentile(99)));
+    sb.append('\n');
+    for (int i = 0; i < counts.length(); i++) {
+      long c = counts.get(i);
+      if (c == 0) continue;
+      if (i == counts.length() - 1) {
+        sb.append(String.format("  >=%8.2f ms: %d%n", 
+            i * bucketWidth / 1e6, c));
+      } else {
+        sb.append(String.format("  %6.2f-%6.2f ms: %d%n", 
+            i * bucketWidth / 1e6, (i + 1) * bucketWidth / 1e6, c));
+      }
+    }
+    return sb.toString();
+  }
+
+  private static String millis(long nanos) {
+    return nanos == Long.MAX_VALUE ? "overflow" 
+        : String.format("%.2fms", nanos / 1e6);
+  }
+}
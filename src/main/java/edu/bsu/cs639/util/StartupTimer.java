@@ -0,0 +1,75 @@
+package edu.bsu.cs639.util;
+
+import java.io.PrintStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Times the milestones of application startup.
+ * <p>
+ * The launcher calls {@link #start()} first thing; code anywhere may then
+ * call {@link #mark(String)} when it reaches a milestone. Only the first mark
+ * of each milestone counts, so marks can be placed on paths that run many
+ * times. Each milestone is printed as it is reached, with the time since
+ * startup and since the previous milestone. Marks made before the timer
+ * starts, or when it is never started, are ignored.
+ *
+ * @author pvg
+ */
+public final class StartupTimer {
+
+  /** When the timer started, from {@link System#nanoTime()}; 0 if not yet */
+  private static long start;
+
+  /** Milestones in the order they were reached, in nanoseconds since start */
+  private static final Map<String,Long> marks = new LinkedHashMap<String,Long>();
+
+  private static long last;
+
+  private static PrintStream out = System.out;
+
+  private StartupTimer() {}
+
+  /**
+   * Start timing, reporting on standard output
+   */
+  public static void start() {
+    start(System.out);
+  }
+
+  /**
+   * Start timing
+   * @param report where milestones are reported, or null not to print them
+   */
+  public static synchronized void start(PrintStream report) {
+    if (start != 0) return;
+    start = System.nanoTime();
+    last = 0;
+    out = report;
+  }
+
+  /**
+   * Record that a milestone has been reached, if it has not been already
+   * @param milestone the name of the milestone
+   */
+  public static synchronized void mark(String milestone) {
+    if (start == 0 || marks.containsKey(milestone)) return;
+    long t = System.nanoTime() - start;
+    marks.put(milestone, t);
+    if (out != null) {
+      out.printf("startup %8.1f ms  (+%7.1f)  %s%n", t / 1e6, (t - last) / 1e6,
+          milestone);
+    }
+    last = t;
+  }
+
+  /**
+   * Get the time at which a milestone was reached
+   * @param milestone the name of the milestone
+   * @return nanoseconds since the timer started, or -1 if not reached
+   */
+  public static synchronized long elapsed(String milestone) {
+    Long t = marks.get(milestone);
+    return t != null ? t : -1;
+  }
+}
@@ -1,5 +1,11 @@
 package edu.bsu.cs639.util;
 
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
 
 /**
  * A group of a limited number of threads that are used to execute tasks.
@@ -9,94 +15,194 @@ package edu.bsu.cs639.util;
  * Developing Games in Java
  * </ul>, provided under a BSD license.
  * This version includes expirable tasks.
- * 
+ * <p>
+ * Pending tasks are kept in an {@link ExpiringQueue} and run in the order
+ * they are submitted; expired tasks are swept from the queue's timing wheel
+ * without being looked at one by one. The queue recycles its nodes, so
+ * submitting a task does not allocate. Idle threads wait on a semaphore
+ * that counts queued tasks rather than on this object's monitor, so
+ * submitting a task holds no lock but the queue's own, briefly.
+ *
  * @author pvg (expiring tasks)
  * @author David Brackeen (original design)
  */
 public class ThreadPool extends ThreadGroup {
 
-  private boolean isAlive;
+  private volatile boolean isAlive;
 
   /** The queue of tasks to be completed */
-  private ExpiringQueue<Runnable> taskQueue = new ExpiringQueue<Runnable>();
+  private final ExpiringQueue<Runnable> taskQueue =
+    new ExpiringQueue<Runnable>();
+
+  /**
+   * Permits for queued tasks. There is at least one permit for every task
+   * in the queue; extra permits only cause a thread to find the queue empty.
+   */
+  private final Semaphore available = new Semaphore(0);
+
+  /** The number of threads in this pool */
+  private final int numThreads;
+
+  /** Counted down once by each thread after {@link #threadStarted()} */
+  private final CountDownLatch started;
+
+  /** The number of tasks that have been run */
+  private final AtomicLong completedCount = new AtomicLong();
 
   /** The next available thread ID for a thread in this pool. */
-  private int threadID;
+  private final AtomicInteger threadID = new AtomicInteger();
 
   /** The next available thread pool ID */
-  private static int threadPoolID;
+  private static final AtomicInteger threadPoolID = new AtomicInteger();
 
   /**
-   * Creates a new ThreadPool.
-   * 
+   * Creates a new ThreadPool and starts its threads.
+   *
    * @param numThreads
    *          The number of threads in the pool.
    */
   public ThreadPool(int numThreads) {
-    super("ThreadPool-" + (threadPoolID++));
+    this(numThreads, true);
+  }
+
+  /**
+   * Creates a new ThreadPool.
+   * Subclasses whose {@link #threadStarted()} depends on their own fields
+   * should not start the threads here, but call {@link #start()} at the end
+   * of their constructor.
+   *
+   * @param numThreads
+   *          The number of threads in the pool.
+   * @param start true to start the threads immediately
+   */
+  protected ThreadPool(int numThreads, boolean start) {
+    super("ThreadPool-" + threadPoolID.getAndIncrement());
     setDaemon(true);
 
+    this.numThreads = numThreads;
+    this.started = new CountDownLatch(numThreads);
     isAlive = true;
 
+    if (start) start();
+  }
+
+  /**
+   * Start the threads of this pool. This must be called exactly once if the
+   * pool was constructed without starting them.
+   */
+  protected final void start() {
     // create all of the pooled threads
     for (int i = 0; i < numThreads; i++) {
       new PooledThread().start();
     }
   }
 
+  /**
+   * Wait until every thread in this pool has finished
+   * {@link #threadStarted()}.
+   * @param timeout the longest time to wait
+   * @param unit the unit of timeout
+   * @return true if all threads have started
+   * @throws InterruptedException
+   */
+  public boolean awaitStarted(long timeout, TimeUnit unit)
+    throws InterruptedException {
+    return started.await(timeout, unit);
+  }
+
   /**
    * Requests a new task to run. This method returns immediately, and the task
    * executes on the next available idle thread in this ThreadPool.
    * The task never expires.
    * <p>
-   * Tasks start execution in the order they are received.
-   * 
+   * Tasks start in the order they are received, whether or not they
+   * expire, so a task that never expires is not passed by later ones.
+   *
    * @param task
    *          The task to run. If null, no action is taken.
    * @throws IllegalStateException
    *           if this ThreadPool is already closed.
    */
-  public synchronized void runTask(Runnable task) {
-    if (!isAlive) {
-      throw new IllegalStateException();
-    }
-    if (task != null) {
-      taskQueue.add(task);
-      notify();
-    }
+  public void runTask(Runnable task) {
+    runTask(task, ExpiringQueue.NON_EXPIRING);
   }
-  
+
   /**
    * Requests a new task to run.
-   * This method returns immediately, and the task executes on the next 
+   * This method returns immediately, and the task executes on the next
    * available idle thread in this pool.
    * The task expires at the given time.
+   * <p>
+   * Tasks start in the order they are received.
+   *
    * @param task the task to run
    * @param expiry a time, specified in milliseconds, after which the
-   *  task has expired and should not be run
+   *  task has expired and should not be run, or 
+   *  {@link ExpiringQueue#NON_EXPIRING}
+   * @throws IllegalStateException
+   *           if this ThreadPool is already closed.
    */
-  public synchronized void runTask(Runnable task, long expiry) {
+  public void runTask(Runnable task, long expiry) {
     if (!isAlive) throw new IllegalStateException();
     if (task!=null) {
-      taskQueue.add(task,expiry);
-      notify();
+      taskQueue.add(task, expiry);
+      available.release();
     }
   }
-  
+
 
   /**
-   * Get a task from the queue
-   * @return the next task or null if all tasks have expired.
+   * Get a task from the queue, waiting for one if necessary.
+   * Expired tasks are discarded by the queue.
+   * @return the next task, or null if this pool is no longer alive and
+   * there are no tasks left
    * @throws InterruptedException
    */
-  private synchronized Runnable getTask() throws InterruptedException {
-    while (taskQueue.isEmpty()) {
-      if (!isAlive) {
+  private Runnable getTask() throws InterruptedException {
+    while (true) {
+      if (!isAlive && taskQueue.isEmpty()) {
+        // Wake the next thread so that it can exit too
+        available.release();
         return null;
       }
-      wait();
+      available.acquire();
+
+      // Null if the task this permit was for has expired
+      Runnable task = taskQueue.get();
+      if (task != null) return task;
     }
-    return taskQueue.get();
+  }
+
+  /**
+   * Get the number of tasks waiting to run.
+   * @return queue depth
+   */
+  public int queueDepth() {
+    return taskQueue.size();
+  }
+
+  /**
+   * Get the number of tasks that expired before they could run.
+   * @return expired task count
+   */
+  public long expiredCount() {
+    return taskQueue.expiredCount();
+  }
+
+  /**
+   * Get the number of tasks that have run.
+   * @return completed task count
+   */
+  public long completedCount() {
+    return completedCount.get();
+  }
+
+  /**
+   * Get the time tasks spent in the queue before they started.
+   * @return wait time histogram
+   */
+  public Histogram waitTime() {
+    return taskQueue.waitTime();
   }
 
   /**
@@ -117,12 +223,9 @@ public class ThreadPool extends ThreadGroup {
    * waiting tasks are executed.
    */
   public void join() {
-    // notify all waiting threads that this ThreadPool is no
-    // longer alive
-    synchronized (this) {
-      isAlive = false;
-      notifyAll();
-    }
+    // wake a waiting thread; each exiting thread wakes the next
+    isAlive = false;
+    available.release();
 
     // wait for all threads to finish
     Thread[] threads = new Thread[activeCount()];
@@ -160,32 +263,32 @@ public class ThreadPool extends ThreadGroup {
   private final class PooledThread extends Thread {
 
     public PooledThread() {
-      super(ThreadPool.this, "PooledThread-" + (threadID++));
+      super(ThreadPool.this, "PooledThread-" + threadID.getAndIncrement());
+      // an idle pool should not keep the application running
+      setDaemon(true);
     }
 
     @Override
     public void run() {
       // signal that this thread has started
-      threadStarted();
+      try {
+        threadStarted();
+      } finally {
+        started.countDown();
+      }
 
+      // threadStarted() may interrupt this thread to have it end
       while (!isInterrupted()) {
         // get a task to run
-        Runnable task = null;
+        Runnable task;
         try {
           task = getTask();
         } catch (InterruptedException ex) {
+          break;
         }
 
-        // brackeen;
-        // if getTask() returned null or was interrupted,
-        // close this thread.
-        //if (task == null) {
-        //  break;
-        // }
-        
-        // if the task is null, then the queue must have expired all tasks,
-        // so we'll wait for a new one
-        if (task==null) continue;
+        // the pool has been shut down and the queue is empty
+        if (task == null) break;
 
         // run the task, and eat any exceptions it throws
         try {
@@ -193,10 +296,11 @@ public class ThreadPool extends ThreadGroup {
         } catch (Throwable t) {
           uncaughtException(this, t);
         }
+        completedCount.incrementAndGet();
       }
-      
+
       // signal that this thread has stopped
       threadStopped();
     }
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,88 @@
+package edu.bsu.cs639.eeclone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.event.KeyEvent;
+import java.awt.event.KeyListener;
+
+import org.junit.Test;
+
+import edu.bsu.cs639.eeclone.sprites.Sprite;
+
+/**
+ * Plays a game to its end and starts another, driving the game loop by hand.
+ * Since there can only be one game object, this is the only test that
+ * creates one.
+ *
+ * @author pvg
+ */
+public class GameReplayTest {
+
+  /** The most updates a game should take to lose every life */
+  private static final int MAX_UPDATES_PER_GAME = Constants.FPS * 60;
+
+  @Test
+  public void replayAfterGameOverIsPlayable() {
+    EEClonePanel panel = Bootstrap.wire();
+    Game game = panel.getGame();
+    Sprite.Player player = game.getPlayer();
+    KeyListener keys = panel.getKeyListeners()[0];
+
+    // Menu to game
+    press(panel, keys, KeyEvent.VK_ENTER);
+    release(panel, keys, KeyEvent.VK_ENTER);
+    game.update();
+    assertFalse("game started", game.isIdle());
+
+    playUntilGameOver(game, player);
+
+    // Any key plays again
+    press(panel, keys, KeyEvent.VK_ENTER);
+    release(panel, keys, KeyEvent.VK_ENTER);
+    game.update();
+    assertFalse("game restarted", game.isIdle());
+    assertEquals("lives restored", Constants.STARTING_LIVES,
+        player.livesRemaining());
+
+    // The player spawns and can move...
+    float y = player.y();
+    press(panel, keys, KeyEvent.VK_UP);
+    game.update();
+    release(panel, keys, KeyEvent.VK_UP);
+    assertTrue("player moves", player.y() < y);
+
+    // ...and, once the spawn is over, can lose a life again
+    for (int i = 0; i <= Constants.FPS; i++) game.update();
+    player.explode();
+    assertEquals("life lost", Constants.STARTING_LIVES - 1,
+        player.livesRemaining());
+
+    // Nothing left over from the first game ends the second
+    for (int i = 0; i < Constants.FPS * 3; i++) game.update();
+    assertFalse("still playing", game.isIdle());
+  }
+
+  /**
+   * Blow the player up whenever possible until the game ends
+   */
+  private static void playUntilGameOver(Game game, Sprite.Player player) {
+    for (int i = 0; i < MAX_UPDATES_PER_GAME; i++) {
+      player.explode();
+      game.update();
+      if (player.livesRemaining() == 0 && game.isIdle()) return;
+    }
+    throw new AssertionError("game did not end");
+  }
+
+  private static void press(EEClonePanel panel, KeyListener keys, int key) {
+    keys.keyPressed(new KeyEvent(panel, KeyEvent.KEY_PRESSED,
+        System.currentTimeMillis(), 0, key, KeyEvent.CHAR_UNDEFINED));
+  }
+
+  private static void release(EEClonePanel panel, KeyListener keys, int key) {
+    keys.keyReleased(new KeyEvent(panel, KeyEvent.KEY_RELEASED,
+        System.currentTimeMillis(), 0, key, KeyEvent.CHAR_UNDEFINED));
+  }
+}